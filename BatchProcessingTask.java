@@ -0,0 +1,341 @@
+package drawingbot.files;
+
+import drawingbot.DrawingBotV3;
+import drawingbot.drawing.ObservableDrawingSet;
+import drawingbot.geom.PathOptimisationPipeline;
+import drawingbot.geom.PolylineSet;
+import drawingbot.geom.basic.IGeometry;
+import drawingbot.image.SubsampledImageReader;
+import drawingbot.image.blend.EnumBlendMode;
+import drawingbot.javafx.ProgressChannel;
+import drawingbot.javafx.TaskMonitor;
+import drawingbot.pfm.PFMFactory;
+import drawingbot.plotting.PlottingTask;
+import drawingbot.render.GeometryRasteriser;
+import drawingbot.render.OffscreenRasteriser;
+import javafx.concurrent.Task;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Runs the full plotting pipeline (load -> filters -> PlottingTask -> export) for every image in a batch.
+ * Images are processed on a fixed pool of their own, one plotting task per thread, fed from a bounded queue so only a few source images are held in memory at once.
+ * The work inside each image e.g. rasterising or path optimisation is split across {@link DrawingBotV3#getForkJoinPool()}, so it isn't queued behind the blocked plotting threads.
+ * The settings are captured when the batch is created, see {@link BatchSettings}, so changing them in the UI doesn't affect a batch which is already running.
+ * The plotting tasks aren't displayed, so they're given a no-op stage listener and never touch the display mode, slider or labels.
+ */
+public class BatchProcessingTask extends Task<Boolean> {
+
+    public final PFMFactory<?> pfmFactory;
+    public final ObservableDrawingSet drawingSet;
+    public final List<File> inputFiles;
+    public final File outputDirectory;
+    public final String extension;
+    public final IBatchExporter exporter;
+    public final boolean overwrite;
+    public final BatchSettings settings;
+
+    public final AtomicInteger processedCount = new AtomicInteger();
+    public final AtomicInteger skippedCount = new AtomicInteger();
+    public final AtomicInteger failedCount = new AtomicInteger();
+
+    public BatchProcessingTask(PFMFactory<?> pfmFactory, ObservableDrawingSet drawingSet, List<File> inputFiles, File outputDirectory, String extension, IBatchExporter exporter, boolean overwrite){
+        this.pfmFactory = pfmFactory;
+        this.drawingSet = drawingSet;
+        this.inputFiles = inputFiles;
+        this.outputDirectory = outputDirectory;
+        this.extension = extension;
+        this.exporter = exporter;
+        this.overwrite = overwrite;
+        this.settings = new BatchSettings(drawingSet);
+    }
+
+    @Override
+    protected Boolean call() throws Exception {
+        return processBatch();
+    }
+
+    /**
+     * processes every image, reporting only through the task's {@link ProgressChannel}, so it can be called directly without the fx toolkit e.g. in headless mode, instead of through {@link #run()}
+     * @return true if no image failed
+     */
+    public boolean processBatch(){
+        ProgressChannel channel = DrawingBotV3.INSTANCE.taskMonitor.getChannel(this);
+        channel.setTitle("Batch Processing");
+        if(!outputDirectory.exists() && !outputDirectory.mkdirs()){
+            throw new IllegalStateException("Failed to create output directory: " + outputDirectory);
+        }
+
+        ExecutorService service = DrawingBotV3.INSTANCE.initBatchService(settings.threads);
+        List<Future<?>> jobs = new ArrayList<>();
+
+        //bounds the work queue, each queued job will hold a decoded image once it starts so we only allow a small backlog
+        Semaphore queueSlots = new Semaphore(settings.threads * 2);
+        int total = inputFiles.size();
+        try{
+            for(File inputFile : inputFiles){
+                if(isCancelled()){
+                    break;
+                }
+                queueSlots.acquire();
+                jobs.add(service.submit(() -> {
+                    try{
+                        processFile(inputFile);
+                    }finally{
+                        queueSlots.release();
+                        updateBatchProgress(channel, total);
+                    }
+                }));
+            }
+            //once cancelled the queued jobs return straight away, so this only waits for the images already being plotted
+            for(Future<?> job : jobs){
+                try{
+                    job.get();
+                }catch (ExecutionException e){
+                    DrawingBotV3.logger.log(Level.SEVERE, "Batch Processing: Job failed", e.getCause());
+                }
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally{
+            service.shutdown();
+        }
+        DrawingBotV3.logger.info("Batch Processing: Finished " + getBatchStatus());
+        return failedCount.get() == 0;
+    }
+
+    public void processFile(File inputFile){
+        if(isCancelled()){
+            return;
+        }
+        File outputFile = getOutputFile(inputFile);
+        if(outputFile.exists() && !overwrite){
+            skippedCount.incrementAndGet();
+            return;
+        }
+        PlottingTask plottingTask = null;
+        try {
+            BufferedImage image = settings.subsampleLargeImages ? SubsampledImageReader.readForDrawing(inputFile, settings.drawingWidthMM, settings.drawingHeightMM, settings.targetPenWidthMM) : ImageIO.read(inputFile);
+            if(image == null){
+                throw new IllegalArgumentException("Unsupported image format");
+            }
+            plottingTask = new PlottingTask(pfmFactory, drawingSet, image, inputFile);
+            DrawingBotV3.INSTANCE.setStageListener(plottingTask, DrawingBotV3.NO_OP_STAGE_LISTENER);
+            DrawingBotV3.INSTANCE.plottingMetrics.onTaskCreated(plottingTask, pfmFactory.getName(), image);
+            plottingTask.run();
+            plottingTask.get(); //rethrows any exception from the pfm
+            if(!isCancelled()){
+                exporter.export(plottingTask, settings, image, outputFile);
+                processedCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            DrawingBotV3.logger.log(Level.SEVERE, "Batch Processing: Failed to process " + inputFile, e);
+        } finally {
+            if(plottingTask != null){
+                plottingTask.reset(); //help GC by removing references to PlottedLines
+            }
+        }
+    }
+
+    public File getOutputFile(File inputFile){
+        String name = inputFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputDirectory, (dot == -1 ? name : name.substring(0, dot)) + extension);
+    }
+
+    public String getBatchStatus(){
+        return "Processed: " + processedCount.get() + ", Skipped: " + skippedCount.get() + ", Failed: " + failedCount.get();
+    }
+
+    /**reports through the task's channel, so the workers don't each queue a progress update on the fx thread, see {@link TaskMonitor#tick()}*/
+    private void updateBatchProgress(ProgressChannel channel, int total){
+        channel.setProgress(processedCount.get() + skippedCount.get() + failedCount.get(), total);
+        channel.setMessage(getBatchStatus());
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**finds every image in the directory which can be decoded by ImageIO, sorted by name so batches run in a predictable order*/
+    public static List<File> findImages(File directory){
+        List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            return file.isFile() && dot != -1 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        });
+        List<File> images = new ArrayList<>();
+        if(files != null){
+            images.addAll(Arrays.asList(files));
+            images.sort(File::compareTo);
+        }
+        return images;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**the settings the batch runs with, captured on the thread which creates the batch, so the workers never read the app's settings while they're being changed*/
+    public static class BatchSettings {
+
+        public final int threads;
+        public final GeometryRasteriser.PenStyle[] pens;
+        public final String[] penNames;
+        public final EnumBlendMode blendMode;
+        public final float drawingWidthMM; //0 if the drawing is sized from the image
+        public final float drawingHeightMM;
+        public final float targetPenWidthMM;
+        public final boolean subsampleLargeImages;
+        public final PathOptimisationPipeline pipelinePerMM; //null if path optimisation is disabled, the tolerances are in mm, see {@link #getPipeline(BufferedImage)}
+        public final boolean svgLayerRenaming;
+
+        public BatchSettings(ObservableDrawingSet drawingSet){
+            DrawingBotV3 app = DrawingBotV3.INSTANCE;
+            this.threads = Math.max(1, app.taskThreadCount.get());
+            this.pens = GeometryRasteriser.capturePens(drawingSet);
+            this.penNames = new String[drawingSet.pens.size()];
+            for(int i = 0; i < penNames.length; i++){
+                penNames[i] = drawingSet.pens.get(i).getName();
+            }
+            this.blendMode = drawingSet.blendMode.get();
+            this.drawingWidthMM = app.getDrawingWidthMM();
+            this.drawingHeightMM = app.getDrawingHeightMM();
+            this.targetPenWidthMM = app.targetPenWidth.get();
+            this.subsampleLargeImages = app.subsampleLargeImages.get();
+            this.pipelinePerMM = ConfigFileHandler.getApplicationSettings().pathOptimisationEnabled ? PathOptimisationPipeline.fromApplicationSettings(1F) : null;
+            this.svgLayerRenaming = ConfigFileHandler.getApplicationSettings().svgLayerRenaming;
+        }
+
+        /**the size of 1 mm in the pixels of the image, if the drawing area isn't set the image is drawn at {@link DrawingBotV3#SVG_DPI}*/
+        public float getPixelsPerMM(BufferedImage source){
+            return drawingWidthMM > 0 ? source.getWidth() / drawingWidthMM : DrawingBotV3.SVG_DPI / 25.4F;
+        }
+
+        /**the path optimisation pipeline in the pixels of the image, or null if it's disabled*/
+        public PathOptimisationPipeline getPipeline(BufferedImage source){
+            return pipelinePerMM == null ? null : pipelinePerMM.scaled(getPixelsPerMM(source));
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public interface IBatchExporter {
+
+        /**
+         * called from worker threads, so the exporter should only use the settings captured when the batch was created, not the observable drawing set or the app's settings
+         */
+        void export(PlottingTask plottingTask, BatchSettings settings, BufferedImage source, File outputFile) throws Exception;
+
+    }
+
+    /**
+     * writes the plotted geometries in the pixel space of the source image, scaled to the drawing area in mm, with one inkscape layer per enabled pen.
+     * one svg path per geometry, or one per optimised polyline when path optimisation is enabled
+     */
+    public static final IBatchExporter SVG_EXPORTER = (plottingTask, settings, source, outputFile) -> {
+        float pixelsPerMM = settings.getPixelsPerMM(source);
+        PathOptimisationPipeline pipeline = settings.getPipeline(source);
+        //stream the geometries through the optimisation stages, instead of copying the geometry list for each stage
+        PolylineSet polylines = pipeline == null ? null : pipeline.run(plottingTask.plottedDrawing.geometries, DrawingBotV3.INSTANCE.getForkJoinPool());
+        try(PrintWriter writer = new PrintWriter(outputFile, "UTF-8")){
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:inkscape=\"http://www.inkscape.org/namespaces/inkscape\" width=\"" + source.getWidth() / pixelsPerMM + "mm\" height=\"" + source.getHeight() / pixelsPerMM + "mm\" viewBox=\"0 0 " + source.getWidth() + " " + source.getHeight() + "\">");
+            StringBuilder builder = new StringBuilder();
+            for(int penIndex = 0; penIndex < settings.pens.length; penIndex++){
+                GeometryRasteriser.PenStyle pen = getEnabledPen(settings.pens, penIndex);
+                if(pen == null){
+                    continue;
+                }
+                String name = settings.svgLayerRenaming ? (penIndex + 1) + " - " + settings.penNames[penIndex] : settings.penNames[penIndex];
+                //the stroke width is in mm, the paths are in pixels
+                writer.println("<g id=\"pen" + (penIndex + 1) + "\" inkscape:groupmode=\"layer\" inkscape:label=\"" + escapeXML(name) + "\" fill=\"none\" stroke=\"" + toHex(pen.colour) + "\" stroke-width=\"" + pen.strokeWidth * pixelsPerMM + "\" stroke-linecap=\"round\" stroke-linejoin=\"round\">");
+                if(polylines != null){
+                    for(int i = 0; i < polylines.size; i++){
+                        if(polylines.pens[i] != penIndex){
+                            continue;
+                        }
+                        builder.setLength(0);
+                        for(int p = polylines.offsets[i]; p < polylines.offsets[i + 1]; p++){
+                            builder.append(p == polylines.offsets[i] ? 'M' : 'L').append(polylines.coords[p * 2]).append(' ').append(polylines.coords[p * 2 + 1]);
+                        }
+                        writeSVGPathElement(writer, builder);
+                    }
+                }else{
+                    for(IGeometry geometry : plottingTask.plottedDrawing.geometries){
+                        if(geometry.getPenIndex() != penIndex){
+                            continue;
+                        }
+                        builder.setLength(0);
+                        writeSVGPath(builder, geometry.getAWTShape());
+                        writeSVGPathElement(writer, builder);
+                    }
+                }
+                writer.println("</g>");
+            }
+            writer.println("</svg>");
+        }
+    };
+
+    /**rasterises the plotted geometries at the size of the source image, see {@link OffscreenRasteriser}*/
+    public static final IBatchExporter PNG_EXPORTER = (plottingTask, settings, source, outputFile) -> {
+        BufferedImage image = OffscreenRasteriser.rasterise(DrawingBotV3.INSTANCE.getForkJoinPool(), plottingTask, settings.pens, settings.blendMode, source.getWidth(), source.getHeight(), new AffineTransform(), Color.WHITE);
+        ImageIO.write(image, "png", outputFile);
+    };
+
+    /**the pen with the index, or null if there isn't one or it's disabled*/
+    private static GeometryRasteriser.PenStyle getEnabledPen(GeometryRasteriser.PenStyle[] pens, int penIndex){
+        if(penIndex < 0 || penIndex >= pens.length || !pens[penIndex].enabled){
+            return null;
+        }
+        return pens[penIndex];
+    }
+
+    private static void writeSVGPathElement(PrintWriter writer, StringBuilder path){
+        writer.println("<path d=\"" + path + "\"/>");
+    }
+    private static void writeSVGPath(StringBuilder builder, Shape shape){
+        float[] coords = new float[6];
+        for(PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()){
+            switch (iterator.currentSegment(coords)){
+                case PathIterator.SEG_MOVETO:
+                    builder.append('M').append(coords[0]).append(' ').append(coords[1]);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    builder.append('L').append(coords[0]).append(' ').append(coords[1]);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    builder.append('Q').append(coords[0]).append(' ').append(coords[1]).append(' ').append(coords[2]).append(' ').append(coords[3]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    builder.append('C').append(coords[0]).append(' ').append(coords[1]).append(' ').append(coords[2]).append(' ').append(coords[3]).append(' ').append(coords[4]).append(' ').append(coords[5]);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    builder.append('Z');
+                    break;
+            }
+        }
+    }
+
+    private static String toHex(Color color){
+        return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    private static String escapeXML(String text){
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,119 @@
+package drawingbot.image.blend;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Composites a pen layer onto a destination, for the renderers which build the drawing up from per pen layers off the FX thread.
+ * Both are non-premultiplied ARGB int arrays. The blending itself is done by the mode's {@link BlendComposite}, each layer pixel is blended as if it were opaque and then mixed with the destination by the layer's alpha,
+ * the same way Java2D applies antialiasing coverage to a custom composite, so empty parts of the layer leave the destination unchanged.
+ * If the opt-in vector source set was built and the jdk.incubator.vector module is available, compositing by blend mode uses the vector engine, otherwise it falls back to the scalar path.
+ */
+public class BlendCompositor {
+
+    public interface IBlendEngine {
+
+        /**@return false if the engine doesn't support the blend mode*/
+        boolean composite(EnumBlendMode blendMode, int[] src, int[] dst, int offset, int length);
+
+    }
+
+    private static final int[] ARGB_MASKS = {0xFF0000, 0xFF00, 0xFF, 0xFF000000};
+    private static final Map<EnumBlendMode, BlendComposite> COMPOSITES = new EnumMap<>(EnumBlendMode.class);
+    private static final Set<EnumBlendMode> ORDER_INDEPENDENT = EnumSet.of(EnumBlendMode.MULTIPLY, EnumBlendMode.SCREEN);
+
+    static {
+        for(EnumBlendMode blendMode : EnumBlendMode.values()){
+            try{
+                COMPOSITES.put(blendMode, BlendComposite.getInstance(BlendComposite.BlendingMode.valueOf(blendMode.name())));
+            }catch (IllegalArgumentException e){
+                //no awt equivalent, see getComposite
+            }
+        }
+    }
+
+    /**null if the vector source set wasn't built or the vector api isn't available*/
+    public static final IBlendEngine VECTOR_ENGINE = loadVectorEngine();
+
+    private static IBlendEngine loadVectorEngine(){
+        try{
+            //loaded reflectively so the default build doesn't depend on the jdk.incubator.vector module, see VectorBlendCompositor in the vector source set
+            IBlendEngine engine = (IBlendEngine) Class.forName("drawingbot.image.blend.VectorBlendCompositor").getDeclaredConstructor().newInstance();
+            engine.composite(EnumBlendMode.NORMAL, new int[]{0xFF000000}, new int[]{0xFFFFFFFF}, 0, 1);
+            return engine;
+        }catch (Throwable throwable){
+            return null;
+        }
+    }
+
+    public static boolean isSupported(EnumBlendMode blendMode){
+        return COMPOSITES.containsKey(blendMode);
+    }
+
+    /**
+     * true if the result is the same whichever order the pens are composited in, so a drawing can be composited as one layer per pen instead of geometry by geometry.
+     * only multiply & screen, mixing by the layer's alpha scales the destination (or its inverse) by a factor, which commutes. darken, lighten & add only commute for opaque pixels, antialiased edges make them depend on the order
+     */
+    public static boolean isOrderIndependent(EnumBlendMode blendMode){
+        return ORDER_INDEPENDENT.contains(blendMode);
+    }
+
+    /**the composite for the blend mode, blend modes with no awt equivalent are drawn normally*/
+    public static Composite getComposite(EnumBlendMode blendMode){
+        BlendComposite composite = COMPOSITES.get(blendMode);
+        return composite == null ? AlphaComposite.SrcOver : composite;
+    }
+
+    public static void composite(EnumBlendMode blendMode, int[] src, int[] dst, int offset, int length){
+        Composite composite = getComposite(blendMode);
+        if(VECTOR_ENGINE != null && VECTOR_ENGINE.composite(blendMode, src, dst, offset, length)){
+            return;
+        }
+        composite(composite, src, dst, offset, length);
+    }
+
+    public static void composite(Composite composite, int[] src, int[] dst, int offset, int length){
+        int[] opaque = new int[length];
+        for(int i = 0; i < length; i++){
+            opaque[i] = src[offset + i] | 0xFF000000;
+        }
+        int[] blended = new int[length];
+        CompositeContext context = composite.createContext(ColorModel.getRGBdefault(), ColorModel.getRGBdefault(), null);
+        context.compose(wrap(opaque, 0, length), wrap(dst, offset, length), wrap(blended, 0, length));
+        context.dispose();
+
+        for(int i = 0; i < length; i++){
+            int s = src[offset + i];
+            if(s >>> 24 == 0){
+                continue;
+            }
+            dst[offset + i] = mixPixel(s >>> 24, blended[i], dst[offset + i]);
+        }
+    }
+
+    /**mixes the blended colour with the destination by the layer's alpha*/
+    public static int mixPixel(int sa, int blended, int d){
+        int br = (blended >> 16) & 0xFF, bg = (blended >> 8) & 0xFF, bb = blended & 0xFF;
+        int da = d >>> 24, dr = (d >> 16) & 0xFF, dg = (d >> 8) & 0xFF, db = d & 0xFF;
+
+        int r = dr + (((br - dr) * sa) / 255);
+        int g = dg + (((bg - dg) * sa) / 255);
+        int b = db + (((bb - db) * sa) / 255);
+        int a = sa + ((da * (255 - sa)) / 255);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**a single row raster over part of the array, without copying it*/
+    private static WritableRaster wrap(int[] pixels, int offset, int length){
+        return Raster.createPackedRaster(new DataBufferInt(pixels, length, offset), length, 1, length, ARGB_MASKS, null);
+    }
+}
@@ -5,8 +5,17 @@
 package drawingbot;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,14 +23,24 @@ import drawingbot.api.IGeometryFilter;
 import drawingbot.drawing.ObservableDrawingSet;
 import drawingbot.files.*;
 import drawingbot.files.exporters.GCodeBuilder;
+import drawingbot.geom.basic.IGeometry;
 import drawingbot.image.BufferedImageLoader;
+import drawingbot.image.FilterChainCache;
 import drawingbot.image.FilteredBufferedImage;
+import drawingbot.image.SubsampledImageReader;
+import drawingbot.image.TiledImageFilter;
 import drawingbot.image.filters.ObservableImageFilter;
 import drawingbot.javafx.FXController;
+import drawingbot.javafx.FilterPreviewService;
+import drawingbot.javafx.ProgressChannel;
 import drawingbot.javafx.TaskMonitor;
 import drawingbot.pfm.PFMFactory;
+import drawingbot.plotting.PlottingMetrics;
+import drawingbot.plotting.PlottingResultCache;
 import drawingbot.plotting.SplitPlottingTask;
+import drawingbot.registry.MasterRegistry;
 import drawingbot.render.AbstractRenderer;
+import drawingbot.render.GeometryRTree;
 import drawingbot.utils.*;
 import drawingbot.plotting.PlottingTask;
 import javafx.application.Platform;
@@ -56,6 +75,11 @@ public class DrawingBotV3 {
 
     public final SimpleBooleanProperty optimiseForPrint = new SimpleBooleanProperty(true);
     public final SimpleFloatProperty targetPenWidth = new SimpleFloatProperty(0.5F);
+    public final SimpleBooleanProperty subsampleLargeImages = new SimpleBooleanProperty(true); //decode images at the resolution needed for the drawing area & target pen width, see SubsampledImageReader
+
+    //TRAVEL OPTIMISATION SETTINGS
+    public final SimpleBooleanProperty travelOptimisationEnabled = new SimpleBooleanProperty(false); //refines the sorted order with 2-opt / Or-opt moves, see TravelOptimiser
+    public final SimpleFloatProperty travelOptimisationTimeLimit = new SimpleFloatProperty(30); //seconds
 
     //VPYPE SETTINGS
     public final SimpleStringProperty vPypeExecutable = new SimpleStringProperty();
@@ -76,6 +100,7 @@ public class DrawingBotV3 {
 
     //PRE-PROCESSING\\
     public final ObservableList<ObservableImageFilter> currentFilters = FXCollections.observableArrayList();
+    public final FilterChainCache filterCache = new FilterChainCache(); //the output of each filter in currentFilters for the open image
 
     //PATH FINDING \\
     public final SimpleObjectProperty<PFMFactory<?>> pfmFactory = new SimpleObjectProperty<>();
@@ -98,9 +123,13 @@ public class DrawingBotV3 {
     //// VARIABLES \\\\
 
     // THREADS \\
+    public final SimpleIntegerProperty taskThreadCount = new SimpleIntegerProperty(Runtime.getRuntime().availableProcessors()); //the number of tasks which can run at the same time, applied on the next reset
     public ExecutorService taskService = initTaskService();
     public ExecutorService backgroundService = initBackgroundService();
     public ExecutorService imageFilteringService = initImageFilteringService();
+    public ExecutorService filterPreviewService = initFilterPreviewService();
+    public final FilterPreviewService filterPreview = new FilterPreviewService(filterPreviewService); //its own thread, so the preview isn't queued behind the full resolution pass
+    private ForkJoinPool forkJoinPool = initForkJoinPool(); //for splitting up a single task across all cores e.g. batch processing, rasterising exports, recreated on reset so always use getForkJoinPool()
 
     public TaskMonitor taskMonitor = new TaskMonitor(taskService);
 
@@ -111,10 +140,23 @@ public class DrawingBotV3 {
 
     public PlottingTask renderedTask = null; //for tasks which generate sub tasks e.g. colour splitter, batch processing
 
+    public final PlottingMetrics plottingMetrics = new PlottingMetrics();
+
+    private final Map<PlottingTask, GeometryRTree> geometryIndexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public final PlottingResultCache plottingCache = new PlottingResultCache(task -> {
+        if(task != activeTask.get()){
+            task.reset();
+        }
+    });
+
     public BufferedImageLoader.Filtered loadingImage = null;
     public File openFile = null;
     public boolean isUpdatingFilters = false;
 
+    // BATCH PROCESSING \\
+    public final SimpleBooleanProperty batchOverwrite = new SimpleBooleanProperty(false);
+
     // GUI \\
     public FXController controller;
 	
@@ -123,7 +165,19 @@ public class DrawingBotV3 {
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public DrawingBotV3() {}
+    public DrawingBotV3() {
+        //hash new images in the background, so the first Start Plotting doesn't have to wait for it
+        openImage.addListener((observable, oldValue, newValue) -> {
+            if(newValue != null){
+                backgroundService.submit(() -> plottingCache.getImageHash(newValue.getSource()));
+            }
+            requestRedraw();
+        });
+        activeTask.addListener((observable, oldValue, newValue) -> requestRedraw());
+        display_mode.addListener((observable, oldValue, newValue) -> requestRedraw());
+        scaleMultiplier.addListener((observable, oldValue, newValue) -> requestRedraw());
+        taskMonitor.processingCount.addListener((observable, oldValue, newValue) -> requestRedraw());
+    }
 
     public float getDrawingAreaWidthMM(){
         return drawingAreaWidth.getValue() * inputUnits.get().convertToMM;
@@ -168,16 +222,10 @@ public class DrawingBotV3 {
 
 
     public void updateUI(){
+        taskMonitor.tick();
         if(getActiveTask() != null && getActiveTask().isRunning()){
-            int geometryCount = getActiveTask().plottedDrawing.getGeometryCount();
-            long vertexCount = getActiveTask().plottedDrawing.getVertexCount();
-
-            if(getActiveTask() instanceof SplitPlottingTask){
-                geometryCount = ((SplitPlottingTask) getActiveTask()).getCurrentGeometryCount();
-                vertexCount = ((SplitPlottingTask) getActiveTask()).getCurrentVertexCount();
-            }
-            controller.labelPlottedShapes.setText(Utils.defaultNF.format(geometryCount));
-            controller.labelPlottedVertices.setText(Utils.defaultNF.format(vertexCount));
+            controller.labelPlottedShapes.setText(Utils.defaultNF.format(taskMonitor.geometryCountProperty.get()));
+            controller.labelPlottedVertices.setText(Utils.defaultNF.format(taskMonitor.vertexCountProperty.get()));
             controller.labelElapsedTime.setText(getActiveTask().getElapsedTime()/1000 + " s");
         }
     }
@@ -187,7 +235,43 @@ public class DrawingBotV3 {
 
     ////// EVENTS
 
+    /**listens to the stages of a plotting task, tasks without one set are treated as the displayed task, see {@link #setStageListener(PlottingTask, IPlottingStageListener)}*/
+    public interface IPlottingStageListener {
+
+        void onStageFinished(PlottingTask task, EnumTaskStage stage);
+
+    }
+
+    /**for tasks which aren't displayed e.g. batch processing, so they don't change the display mode, the displayed lines slider or the labels*/
+    public static final IPlottingStageListener NO_OP_STAGE_LISTENER = (task, stage) -> {};
+
+    private final Map<PlottingTask, IPlottingStageListener> stageListeners = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public void setStageListener(PlottingTask task, IPlottingStageListener listener){
+        stageListeners.put(task, listener);
+    }
+
     public void onPlottingTaskStageFinished(PlottingTask task, EnumTaskStage stage){
+        publishCounts(task);
+        stageListeners.getOrDefault(task, this::onDisplayedTaskStageFinished).onStageFinished(task, stage);
+        PlottingMetrics.StageRecord record = plottingMetrics.onStageFinished(task, stage);
+        logger.info("Plotting Task: Finished Stage " + stage.name() + (record == null ? "" : " in " + record.durationNanos / 1_000_000 + " ms"));
+    }
+
+    /**called on the task's thread, reports the drawing's counts through the task's channel for the {@link TaskMonitor} to sample, tasks which aren't monitored e.g. in a batch are skipped*/
+    private void publishCounts(PlottingTask task){
+        ProgressChannel channel = taskMonitor.findChannel(task);
+        if(channel == null){
+            return;
+        }
+        if(task instanceof SplitPlottingTask){
+            channel.setCounts(((SplitPlottingTask) task).getCurrentGeometryCount(), ((SplitPlottingTask) task).getCurrentVertexCount());
+        }else{
+            channel.setCounts(task.plottedDrawing.getGeometryCount(), task.plottedDrawing.getVertexCount());
+        }
+    }
+
+    private void onDisplayedTaskStageFinished(PlottingTask task, EnumTaskStage stage){
         switch (stage){
             case QUEUED:
                 break;
@@ -195,6 +279,9 @@ public class DrawingBotV3 {
                 Platform.runLater(() -> display_mode.setValue(EnumDisplayMode.DRAWING));
                 break;
             case DO_PROCESS:
+                if(controller == null){
+                    break; //headless
+                }
                 Platform.runLater(() -> {
                     controller.sliderDisplayedLines.setValue(1.0F);
                     controller.textFieldDisplayedLines.setText(String.valueOf(task.plottedDrawing.getGeometryCount()));
@@ -207,13 +294,32 @@ public class DrawingBotV3 {
             case FINISHING:
                 break;
             case FINISHED:
+                plottingCache.onTaskFinished(task);
+                //only index the displayed task, checked on the fx thread where tasks are swapped & reset, the geometries are copied there so a reset can't clear them mid build
+                Platform.runLater(() -> {
+                    if(task != activeTask.get() || geometryIndexes.containsKey(task)){
+                        return;
+                    }
+                    List<IGeometry> geometries = new ArrayList<>(task.plottedDrawing.geometries);
+                    backgroundService.submit(() -> {
+                        GeometryRTree index = GeometryRTree.build(geometries);
+                        Platform.runLater(() -> {
+                            if(task == activeTask.get()){
+                                geometryIndexes.put(task, index);
+                                requestRedraw();
+                            }
+                        });
+                    });
+                });
                 break;
         }
-       logger.info("Plotting Task: Finished Stage " + stage.name());
     }
 
     public void onDrawingAreaChanged(){
-        RENDERER.drawingAreaDirty = true;
+        if(RENDERER != null){
+            RENDERER.drawingAreaDirty = true;
+            requestRedraw();
+        }
     }
 
     public void onDrawingPenChanged(){
@@ -226,7 +332,23 @@ public class DrawingBotV3 {
     }
 
     public void onImageFiltersChanged(){
-        RENDERER.imageFiltersDirty = true;
+        if(filterPreview.deferFullPass()){
+            return; //a filter is being edited, the full resolution pass runs once the edits stop, see FilterPreviewService
+        }
+        refilterImage();
+    }
+
+    /**re-applies the image filters to the open image at full resolution*/
+    public void refilterImage(){
+        if(RENDERER != null){
+            RENDERER.imageFiltersDirty = true;
+            requestRedraw();
+        }
+    }
+
+    /**applies every enabled filter in currentFilters to the image, only re-applying the filters from the first one which changed, see {@link FilterChainCache}*/
+    public BufferedImage applyCurrentFilters(BufferedImage image){
+        return filterCache.apply(image, currentFilters, (filter, input) -> TiledImageFilter.filter(getForkJoinPool(), filter, input));
     }
 
     public void updatePenDistribution(){
@@ -237,7 +359,40 @@ public class DrawingBotV3 {
     }
 
     public void reRender(){
-        RENDERER.reRender();
+        if(RENDERER != null){
+            RENDERER.reRender();
+            requestRedraw();
+        }
+    }
+
+    //// RENDERING
+
+    private final AtomicBoolean redrawRequested = new AtomicBoolean(true);
+    private boolean wasBusy = false;
+
+    /**marks the viewport as dirty and wakes the draw timer, it will go idle again once a frame has nothing to draw*/
+    public void requestRedraw(){
+        redrawRequested.set(true);
+        FXApplication.wakeDrawTimer();
+    }
+
+    /**true if a redraw has been requested which no frame has drawn yet*/
+    public boolean isRedrawRequested(){
+        return redrawRequested.get();
+    }
+
+    /**true if the renderer still has changes to apply, which it may spread over several frames*/
+    public boolean hasPendingRenderWork(){
+        return RENDERER != null && (RENDERER.imageFiltersDirty || RENDERER.drawingAreaDirty);
+    }
+
+    /**called once per pulse, true if the renderer should draw this frame*/
+    public boolean shouldRedraw(){
+        boolean busy = taskMonitor.processingCount.get() > 0 || isUpdatingFilters || hasPendingRenderWork();
+        //draw one more frame after the work finishes, so the final result is displayed
+        boolean redraw = redrawRequested.getAndSet(false) || busy || wasBusy;
+        wasBusy = busy;
+        return redraw;
     }
 
     //// PLOTTING TASKS
@@ -250,7 +405,9 @@ public class DrawingBotV3 {
                 updateDistributionType = null;
             }
         });
-        return colourSplitter.get() == EnumColourSplitter.DEFAULT ? new PlottingTask(pfmFactory, drawingPenSet, image, originalFile) : new SplitPlottingTask(pfmFactory, drawingPenSet, image, originalFile, splitter);
+        PlottingTask task = colourSplitter.get() == EnumColourSplitter.DEFAULT ? new PlottingTask(pfmFactory, drawingPenSet, image, originalFile) : new SplitPlottingTask(pfmFactory, drawingPenSet, image, originalFile, splitter);
+        plottingMetrics.onTaskCreated(task, pfmFactory.getName(), image);
+        return task;
     }
 
     public void startPlotting(){
@@ -258,20 +415,56 @@ public class DrawingBotV3 {
             activeTask.get().cancel();
         }
         if(openImage.get() != null){
-            taskMonitor.queueTask(initPlottingTask(pfmFactory.get(), observableDrawingSet, openImage.get().getSource(), openFile, colourSplitter.get()));
+            FilteredBufferedImage image = openImage.get();
+            int request = ++plottingRequest;
+            //the settings are read here on the fx thread, but hashing a large image can take a while so the image hash is found on the background thread, usually it was already hashed there when the image was opened.
+            //the result comes back to the fx thread, by then another Start Plotting, a reset or a new image may have replaced this request, in which case it's dropped so a stale drawing can't become the active task
+            String settingsKey = plottingCache.createSettingsKey(currentFilters, pfmFactory.get(), MasterRegistry.INSTANCE.getObservablePFMSettingsList(), colourSplitter.get(), this);
+            backgroundService.submit(() -> {
+                String cacheKey = plottingCache.createKey(plottingCache.getImageHash(image.getSource()), settingsKey);
+                Platform.runLater(() -> {
+                    if(request == plottingRequest && image == openImage.get()){
+                        startPlotting(image, cacheKey);
+                    }
+                });
+            });
+        }
+    }
+
+    private int plottingRequest = 0; //fx thread only, so only the latest Start Plotting goes ahead, also changed by a reset or a new image
+
+    private void startPlotting(FilteredBufferedImage image, String cacheKey){
+        PlottingTask cachedTask = plottingCache.get(cacheKey);
+        if(cachedTask != null){
+            logger.info("Plotting Task: Reusing cached drawing");
+            setActivePlottingTask(cachedTask);
+            display_mode.setValue(EnumDisplayMode.DRAWING);
+            controller.sliderDisplayedLines.setValue(1.0F);
+            controller.textFieldDisplayedLines.setText(String.valueOf(cachedTask.plottedDrawing.getGeometryCount()));
+            controller.labelPlottedShapes.setText(Utils.defaultNF.format(cachedTask.plottedDrawing.getGeometryCount()));
+            controller.labelPlottedVertices.setText(Utils.defaultNF.format(cachedTask.plottedDrawing.getVertexCount()));
+            updatePenDistribution();
+            return;
         }
+        PlottingTask task = initPlottingTask(pfmFactory.get(), observableDrawingSet, image.getSource(), openFile, colourSplitter.get());
+        plottingCache.addPendingTask(task, cacheKey);
+        taskMonitor.queueTask(task);
     }
 
     public void stopPlotting(){
         if(activeTask.get() != null){
+            plottingCache.removePendingTask(activeTask.get()); //the drawing will be incomplete
             activeTask.get().stopElegantly();
         }
     }
 
     public void resetPlotting(){
+        plottingRequest++; //drops any cache lookup still in flight
         taskService.shutdownNow();
+        forkJoinPool.shutdownNow();
         setActivePlottingTask(null);
         taskService = initTaskService();
+        forkJoinPool = initForkJoinPool();
         taskMonitor.resetMonitor(taskService);
 
         localProgress = 0D;
@@ -287,15 +480,16 @@ public class DrawingBotV3 {
             openImage.set(null);
             loadingImage = null;
         }
+        plottingRequest++; //drops any cache lookup still in flight for the previous image
         openFile = file;
-        loadingImage = new BufferedImageLoader.Filtered(file.getAbsolutePath(), internal);
+        loadingImage = !internal && subsampleLargeImages.get() ? new SubsampledImageReader.Loader(file) : new BufferedImageLoader.Filtered(file.getAbsolutePath(), internal);
         taskMonitor.queueTask(loadingImage);
 
         FXApplication.primaryStage.setTitle(DBConstants.appName + ", Version: " + DBConstants.appVersion + ", '" + file.getName() + "'");
     }
 
     public void setActivePlottingTask(PlottingTask task){
-        if(activeTask.get() != null){
+        if(activeTask.get() != null && activeTask.get() != task && !plottingCache.contains(activeTask.get())){
             activeTask.get().reset(); //help GC by removing references to PlottedLines
         }
         activeTask.set(task);
@@ -313,6 +507,11 @@ public class DrawingBotV3 {
         return renderedTask == null ? activeTask.get() : renderedTask;
     }
 
+    /**the spatial index of a finished task's geometries, null until it has been built in the background*/
+    public GeometryRTree getGeometryIndex(PlottingTask task){
+        return geometryIndexes.get(task);
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
 
     //// EXPORT TASKS
@@ -337,6 +536,16 @@ public class DrawingBotV3 {
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    //// BATCH PROCESSING
+
+    public BatchProcessingTask startBatchProcessing(List<File> inputFiles, File outputDirectory){
+        BatchProcessingTask batchTask = new BatchProcessingTask(pfmFactory.get(), observableDrawingSet, inputFiles, outputDirectory, ".svg", BatchProcessingTask.SVG_EXPORTER, batchOverwrite.get());
+        taskMonitor.queueTask(batchTask);
+        return batchTask;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
     //// INTERACTION EVENTS
 
     private boolean ctrl_down = false;
@@ -397,9 +606,11 @@ public class DrawingBotV3 {
         DrawingBotV3.logger.log(Level.SEVERE, "Thread Exception: " + thread.getName(), throwable);
     };
 
+    private final AtomicInteger taskThreadID = new AtomicInteger();
+
     public ExecutorService initTaskService(){
-        return Executors.newSingleThreadExecutor(r -> {
-            Thread t = new Thread(r, "DrawingBotV3 - Task Thread");
+        return Executors.newFixedThreadPool(Math.max(1, taskThreadCount.get()), r -> {
+            Thread t = new Thread(r, "DrawingBotV3 - Task Thread #" + taskThreadID.incrementAndGet());
             t.setDaemon(true);
             t.setUncaughtExceptionHandler(exceptionHandler);
             return t;
@@ -432,5 +643,39 @@ public class DrawingBotV3 {
             return t;
         });
     }
+
+    public ExecutorService initFilterPreviewService(){
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "DrawingBotV3 - Filter Preview Thread");
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(exceptionHandler);
+            return t;
+        });
+    }
+
+    /**a pool for one batch, shut down by the batch when it finishes*/
+    public ExecutorService initBatchService(int threads){
+        AtomicInteger batchThreadID = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "DrawingBotV3 - Batch Thread #" + batchThreadID.incrementAndGet());
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(exceptionHandler);
+            return t;
+        });
+    }
+
+    /**the current fork join pool, it's replaced when plotting is reset so it shouldn't be kept*/
+    public ForkJoinPool getForkJoinPool(){
+        return forkJoinPool;
+    }
+
+    public ForkJoinPool initForkJoinPool(){
+        return new ForkJoinPool(Math.max(1, taskThreadCount.get()), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("DrawingBotV3 - Fork Join Thread #" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, (thread, throwable) -> exceptionHandler.uncaughtException(thread, throwable), false);
+    }
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
 }
\ No newline at end of file
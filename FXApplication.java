@@ -28,6 +28,7 @@ public class FXApplication extends Application {
     public static String[] launchArgs;
     public static Stage primaryStage;
     public static Scene primaryScene;
+    public static DrawTimer drawTimer;
 
     public static void main(String[] args) {
         launchArgs = args;
@@ -87,10 +88,11 @@ public class FXApplication extends Application {
 				///// INIT RENDERER
 				DrawingBotV3.RENDERER = new JavaFXRenderer();
 				DrawingBotV3.RENDERER.init();
+				DrawingBotV3.INSTANCE.controller.initFilterPreview();
 			});
 			// set up main drawing loop
-			DrawTimer timer = new DrawTimer();
-			timer.start();
+			drawTimer = new DrawTimer();
+			wakeDrawTimer();
 
 			primaryStage.setTitle(DBConstants.appName + ", Version: " + DBConstants.appVersion);
 			primaryStage.setResizable(true);
@@ -128,11 +130,46 @@ public class FXApplication extends Application {
         }
     }
 
-    private static class DrawTimer extends AnimationTimer{
+    public static void wakeDrawTimer(){
+        if(drawTimer == null || drawTimer.isRunning){
+            return;
+        }
+        if(Platform.isFxApplicationThread()){
+            drawTimer.start();
+        }else{
+            Platform.runLater(drawTimer::start);
+        }
+    }
+
+    /**draws the viewport when something has changed, stops itself when a frame has nothing to draw and is woken by {@link DrawingBotV3#requestRedraw()}*/
+    public static class DrawTimer extends AnimationTimer{
+
+        private volatile boolean isRunning = false;
+
+        @Override
+        public void start() {
+            isRunning = true;
+            super.start();
+        }
+
+        @Override
+        public void stop() {
+            isRunning = false;
+            super.stop();
+        }
+
         @Override
         public void handle(long now) {
             DrawingBotV3.INSTANCE.updateUI();
-            DrawingBotV3.RENDERER.draw();
+            if(DrawingBotV3.RENDERER != null && DrawingBotV3.INSTANCE.shouldRedraw()){
+                DrawingBotV3.RENDERER.draw();
+            }else if(DrawingBotV3.RENDERER != null){
+                stop();
+                //a redraw requested from another thread after the check above saw the timer still running and didn't wake it, so check again now it's stopped
+                if(DrawingBotV3.INSTANCE.isRedrawRequested()){
+                    start();
+                }
+            }
         }
     }
 }
\ No newline at end of file
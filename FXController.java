@@ -19,6 +19,7 @@ import drawingbot.registry.MasterRegistry;
 import drawingbot.plotting.PlottingTask;
 import drawingbot.utils.*;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.SimpleListProperty;
@@ -26,6 +27,7 @@ import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 
@@ -33,6 +35,7 @@ import javafx.scene.control.cell.CheckBoxTableCell;
 import javafx.scene.control.cell.ComboBoxListCell;
 import javafx.scene.control.cell.TextFieldTableCell;
 import javafx.scene.control.skin.ComboBoxListViewSkin;
+import javafx.scene.image.ImageView;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
@@ -41,6 +44,7 @@ import javafx.util.converter.DefaultStringConverter;
 import javafx.util.converter.FloatStringConverter;
 import javafx.util.converter.IntegerStringConverter;
 
+import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.io.File;
 import java.util.ArrayList;
@@ -70,13 +74,16 @@ public class FXController {
 		initConnectionPortPane();
         initPFMControls();
         initPenSettingsPane();
-
+        initBatchProcessingPane();
 
         viewportStackPane.setOnMousePressed(DrawingBotV3.INSTANCE::mousePressedJavaFX);
         viewportStackPane.setOnMouseDragged(DrawingBotV3.INSTANCE::mouseDraggedJavaFX);
 
         viewportScrollPane.setHvalue(0.5);
         viewportScrollPane.setVvalue(0.5);
+        viewportScrollPane.hvalueProperty().addListener((observable, oldValue, newValue) -> DrawingBotV3.INSTANCE.requestRedraw());
+        viewportScrollPane.vvalueProperty().addListener((observable, oldValue, newValue) -> DrawingBotV3.INSTANCE.requestRedraw());
+        viewportScrollPane.viewportBoundsProperty().addListener((observable, oldValue, newValue) -> DrawingBotV3.INSTANCE.requestRedraw());
 
         initSeparateStages();
 
@@ -118,12 +125,29 @@ public class FXController {
         menuImport.setOnAction(e -> FXHelper.importFile());
         menuFile.getItems().add(menuImport);
 
+        MenuItem menuBatchProcess = new MenuItem("Batch Process Folder");
+        menuBatchProcess.setOnAction(e -> FXHelper.batchProcessFolder());
+        menuFile.getItems().add(menuBatchProcess);
+
         menuFile.getItems().add(new SeparatorMenuItem());
 
         MenuItem menuExportSettings = new MenuItem("Export Settings");
         menuExportSettings.setOnAction(e -> exportSettingsStage.show());
         menuFile.getItems().add(menuExportSettings);
 
+        Menu menuTaskThreads = new Menu("Task Threads");
+        ToggleGroup taskThreadsGroup = new ToggleGroup();
+        int processors = Runtime.getRuntime().availableProcessors();
+        for(int count = 1; count < processors * 2; count *= 2){
+            int threads = Math.min(count, processors); //powers of two, then every core
+            RadioMenuItem item = new RadioMenuItem(threads + (threads == 1 ? " Thread" : " Threads"));
+            item.setToggleGroup(taskThreadsGroup);
+            item.setSelected(DrawingBotV3.INSTANCE.taskThreadCount.get() == threads);
+            item.setOnAction(e -> DrawingBotV3.INSTANCE.taskThreadCount.set(threads)); //applied when plotting is next reset
+            menuTaskThreads.getItems().add(item);
+        }
+        menuFile.getItems().add(menuTaskThreads);
+
         menuFile.getItems().add(new SeparatorMenuItem());
 
         MenuItem menuQuit = new MenuItem("Quit");
@@ -168,6 +192,10 @@ public class FXController {
         MenuItem configFolder = new MenuItem("Open Configs Folder");
         configFolder.setOnAction(e -> FXHelper.openFolder(new File(FileUtils.getUserDataDirectory())));
         menuHelp.getItems().add(configFolder);
+
+        MenuItem plottingMetrics = new MenuItem("Export Plotting Metrics");
+        plottingMetrics.setOnAction(e -> FXHelper.exportPlottingMetrics());
+        menuHelp.getItems().add(plottingMetrics);
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -266,6 +294,26 @@ public class FXController {
         labelPlottedVertices.setText("0");
     }
 
+    /**the low resolution preview is drawn over the image while a filter is being edited, until the full resolution pass has finished, called after the renderer has added its canvas so the preview is above it*/
+    public void initFilterPreview(){
+        ImageView filterPreviewView = new ImageView();
+        filterPreviewView.setManaged(false);
+        filterPreviewView.setMouseTransparent(true);
+        filterPreviewView.setPreserveRatio(true);
+        filterPreviewView.fitWidthProperty().bind(viewportStackPane.widthProperty());
+        filterPreviewView.fitHeightProperty().bind(viewportStackPane.heightProperty());
+        filterPreviewView.imageProperty().bind(Bindings.createObjectBinding(() -> {
+            BufferedImage preview = DrawingBotV3.INSTANCE.filterPreview.previewImage.get();
+            return preview == null ? null : SwingFXUtils.toFXImage(preview, null);
+        }, DrawingBotV3.INSTANCE.filterPreview.previewImage));
+        filterPreviewView.visibleProperty().bind(filterPreviewView.imageProperty().isNotNull().and(DrawingBotV3.INSTANCE.display_mode.isEqualTo(EnumDisplayMode.IMAGE)));
+        InvalidationListener centrePreview = observable -> filterPreviewView.relocate((viewportStackPane.getWidth() - filterPreviewView.getLayoutBounds().getWidth()) / 2, (viewportStackPane.getHeight() - filterPreviewView.getLayoutBounds().getHeight()) / 2);
+        filterPreviewView.layoutBoundsProperty().addListener(centrePreview);
+        viewportStackPane.widthProperty().addListener(centrePreview);
+        viewportStackPane.heightProperty().addListener(centrePreview);
+        viewportStackPane.getChildren().add(filterPreviewView);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
     //// PLOTTING CONTROLS
@@ -777,6 +825,11 @@ public class FXController {
 
     public CheckBox checkBoxOverwrite = null;
 
+    public void initBatchProcessingPane(){
+        if(checkBoxOverwrite != null){
+            DrawingBotV3.INSTANCE.batchOverwrite.bindBidirectional(checkBoxOverwrite.selectedProperty());
+        }
+    }
 
     public void changePathFinderModule(PFMFactory<?> pfm){
         DrawingBotV3.INSTANCE.pfmFactory.set(pfm);
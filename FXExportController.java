@@ -53,6 +53,9 @@ public class FXExportController {
     public TextField textFieldSortTolerance = null;
     public ChoiceBox<UnitsLength> choiceBoxSortUnits = null;
 
+    public CheckBox checkBoxTravelOptimisation = null;
+    public TextField textFieldTravelTimeLimit = null;
+
     public void initPathOptimisationPane(){
         checkBoxEnableOptimisation.setSelected(ConfigFileHandler.getApplicationSettings().pathOptimisationEnabled);
         checkBoxEnableOptimisation.selectedProperty().addListener((observable, oldValue, newValue) -> ConfigFileHandler.getApplicationSettings().pathOptimisationEnabled = newValue);
@@ -110,6 +113,25 @@ public class FXExportController {
         choiceBoxSortUnits.setValue(ConfigFileHandler.getApplicationSettings().lineSortingUnits);
         choiceBoxSortUnits.setItems(FXCollections.observableArrayList(UnitsLength.values()));
         choiceBoxSortUnits.valueProperty().addListener((observable, oldValue, newValue) -> ConfigFileHandler.getApplicationSettings().lineSortingUnits = newValue);
+
+        //travel optimisation
+
+        if(checkBoxTravelOptimisation != null){
+            checkBoxTravelOptimisation.selectedProperty().bindBidirectional(DrawingBotV3.INSTANCE.travelOptimisationEnabled);
+        }
+
+        if(textFieldTravelTimeLimit != null){
+            TextFormatter<Float> travelTimeLimitFormatter = new TextFormatter<>(new FloatStringConverter(), DrawingBotV3.INSTANCE.travelOptimisationTimeLimit.get());
+            textFieldTravelTimeLimit.setTextFormatter(travelTimeLimitFormatter);
+            travelTimeLimitFormatter.valueProperty().addListener((observable, oldValue, newValue) -> {
+                if(newValue != null){ //null while the field is empty
+                    DrawingBotV3.INSTANCE.travelOptimisationTimeLimit.set(newValue);
+                }
+            });
+            if(checkBoxTravelOptimisation != null){
+                textFieldTravelTimeLimit.disableProperty().bind(checkBoxTravelOptimisation.selectedProperty().not());
+            }
+        }
     }
 
 
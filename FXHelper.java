@@ -2,6 +2,7 @@ package drawingbot.javafx;
 
 import drawingbot.DrawingBotV3;
 import drawingbot.FXApplication;
+import drawingbot.files.BatchProcessingTask;
 import drawingbot.files.ExportFormats;
 import drawingbot.files.FileUtils;
 import drawingbot.files.presets.AbstractPresetLoader;
@@ -24,6 +25,7 @@ import javafx.scene.control.*;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.Button;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
@@ -64,6 +66,28 @@ public class FXHelper {
         });
     }
 
+    public static void batchProcessFolder(){
+        Platform.runLater(() -> {
+            DirectoryChooser d = new DirectoryChooser();
+            d.setTitle("Select a folder of images to batch process");
+            d.setInitialDirectory(FileUtils.getImportDirectory());
+            File inputDirectory = d.showDialog(null);
+            if(inputDirectory == null){
+                return;
+            }
+            FileUtils.updateImportDirectory(inputDirectory);
+
+            d.setTitle("Select the output folder");
+            d.setInitialDirectory(FileUtils.getExportDirectory());
+            File outputDirectory = d.showDialog(null);
+            if(outputDirectory == null){
+                return;
+            }
+            FileUtils.updateExportDirectory(outputDirectory);
+            DrawingBotV3.INSTANCE.startBatchProcessing(BatchProcessingTask.findImages(inputDirectory), outputDirectory);
+        });
+    }
+
     public static void exportToMachine(String portName, boolean seperatePens){
         if(DrawingBotV3.INSTANCE.getActiveTask() == null){
             return;
@@ -106,6 +130,29 @@ public class FXHelper {
         });
     }
 
+    public static void exportPlottingMetrics(){
+        Platform.runLater(() -> {
+            FileChooser d = new FileChooser();
+            d.getExtensionFilters().addAll(FileUtils.FILTER_JSON, new FileChooser.ExtensionFilter("CSV - Comma-separated values", "*.csv"));
+            d.setTitle("Save plotting metrics");
+            d.setInitialDirectory(FileUtils.getExportDirectory());
+            d.setInitialFileName("Plotting Metrics");
+            File file = d.showSaveDialog(null);
+            if(file != null){
+                try {
+                    if(d.getSelectedExtensionFilter() != null && d.getSelectedExtensionFilter().getExtensions().contains("*.csv")){
+                        DrawingBotV3.INSTANCE.plottingMetrics.dumpCSV(file);
+                    }else{
+                        DrawingBotV3.INSTANCE.plottingMetrics.dumpJSON(file);
+                    }
+                } catch (IOException e) {
+                    DrawingBotV3.logger.log(Level.WARNING, e, () -> "Error saving plotting metrics: " + file);
+                }
+                FileUtils.updateExportDirectory(file.getParentFile());
+            }
+        });
+    }
+
     public static void openURL(String url) {
         try {
             if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
@@ -307,6 +354,7 @@ public class FXHelper {
     public static void openImageFilterDialog(ObservableImageFilter filter){
         if(filter != null){
             Dialog<ObservableImageFilter> dialog = MasterRegistry.INSTANCE.getDialogForFilter(filter);
+            DrawingBotV3.INSTANCE.filterPreview.start(filter); //edits are previewed on a low resolution proxy until the dialog is closed
             Optional<ObservableImageFilter> result = dialog.showAndWait();
             //TODO MAKE DIALOG APPEAR ON THE CORRECT DISPLAY
             if(result.isPresent()){
@@ -315,6 +363,7 @@ public class FXHelper {
                     DrawingBotV3.INSTANCE.onImageFiltersChanged();
                 }
             }
+            DrawingBotV3.INSTANCE.filterPreview.stop();
         }
     }
 
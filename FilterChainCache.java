@@ -0,0 +1,162 @@
+package drawingbot.image;
+
+import drawingbot.image.filters.ObservableImageFilter;
+import drawingbot.javafx.GenericSetting;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps the output of every stage of the image filter chain, so editing filter k only re-applies filters k..n to the cached output of filter k-1.
+ * Each stage is keyed by its filter's type, enable flag and settings, the chain is only applied again from the first stage whose key has changed.
+ * Stage outputs are dropped from the front of the chain when they go over {@link #maxMemoryBytes}, the last stage is always kept.
+ */
+public class FilterChainCache {
+
+    public long maxMemoryBytes = 1024L * 1024 * 1024;
+
+    private BufferedImage source = null;
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * @param runner applies one op to an image, e.g. {@link TiledImageFilter#filter(java.util.concurrent.ForkJoinPool, BufferedImageOp, BufferedImage)}
+     * @return the output of the last filter, or the source if there are no enabled filters
+     */
+    public BufferedImage apply(BufferedImage source, List<ObservableImageFilter> filters, BiFunction<BufferedImageOp, BufferedImage, BufferedImage> runner){
+        return applySnapshot(source, snapshot(filters), runner);
+    }
+
+    /**
+     * applies filters captured by {@link #snapshot(List)}, so it can be called off the FX thread while the filters are being edited
+     * @return the output of the last filter, or the source if there are no enabled filters
+     */
+    public synchronized BufferedImage applySnapshot(BufferedImage source, List<FilterSnapshot> filters, BiFunction<BufferedImageOp, BufferedImage, BufferedImage> runner){
+        if(this.source != source){
+            this.source = source;
+            stages.clear();
+        }
+
+        List<String> keys = new ArrayList<>();
+        for(FilterSnapshot filter : filters){
+            keys.add(filter.key);
+        }
+
+        int firstChanged = 0;
+        while(firstChanged < keys.size() && firstChanged < stages.size() && stages.get(firstChanged).key.equals(keys.get(firstChanged))){
+            firstChanged++;
+        }
+        while(stages.size() > firstChanged){
+            stages.remove(stages.size() - 1);
+        }
+
+        //start from the last stage before the change which still has its output
+        int start = firstChanged;
+        while(start > 0 && stages.get(start - 1).output == null){
+            start--;
+        }
+        BufferedImage image = start == 0 ? source : stages.get(start - 1).output;
+        for(int i = start; i < keys.size(); i++){
+            FilterSnapshot filter = filters.get(i);
+            if(filter.op != null){
+                image = runner.apply(filter.op, image);
+            }
+            if(i < stages.size()){
+                stages.set(i, new Stage(keys.get(i), image));
+            }else{
+                stages.add(new Stage(keys.get(i), image));
+            }
+        }
+        evict();
+        return image;
+    }
+
+    public synchronized void clear(){
+        source = null;
+        stages.clear();
+    }
+
+    /**the number of filters at the start of the chain which would not be re-applied*/
+    public synchronized int getCachedStageCount(){
+        return stages.size();
+    }
+
+    private void evict(){
+        while(getMemoryUsed() > maxMemoryBytes){
+            int oldest = -1;
+            for(int i = 0; i < stages.size() - 1; i++){
+                if(stages.get(i).output != null){
+                    oldest = i;
+                    break;
+                }
+            }
+            if(oldest == -1){
+                return;
+            }
+            stages.get(oldest).output = null;
+        }
+    }
+
+    /**disabled stages share their input image, so each image is only counted once*/
+    private long getMemoryUsed(){
+        Map<BufferedImage, Boolean> counted = new IdentityHashMap<>();
+        long total = 0;
+        for(Stage stage : stages){
+            if(stage.output != null && stage.output != source && counted.put(stage.output, true) == null){
+                total += getMemorySize(stage.output);
+            }
+        }
+        return total;
+    }
+
+    public static long getMemorySize(BufferedImage image){
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**creates an op for each filter with its current settings, this reads the observable settings so should be called on the fx thread*/
+    public static List<FilterSnapshot> snapshot(List<ObservableImageFilter> filters){
+        List<FilterSnapshot> snapshot = new ArrayList<>();
+        for(ObservableImageFilter filter : filters){
+            BufferedImageOp instance = null;
+            if(filter.enable.get()){
+                instance = filter.filterFactory.instance();
+                GenericSetting.applySettingsToInstance(filter.filterSettings, instance);
+            }
+            snapshot.add(new FilterSnapshot(createKey(filter), instance));
+        }
+        return snapshot;
+    }
+
+    /**the filter's type, enable flag and settings, see {@link GenericSetting#createKey(List)}*/
+    public static String createKey(ObservableImageFilter filter){
+        return filter.filterFactory.getName() + ':' + filter.enable.get() + GenericSetting.createKey(filter.filterSettings);
+    }
+
+    public static class FilterSnapshot {
+
+        public final String key;
+        public final BufferedImageOp op; //null if the filter is disabled
+
+        public FilterSnapshot(String key, BufferedImageOp op){
+            this.key = key;
+            this.op = op;
+        }
+    }
+
+    private static class Stage {
+
+        public final String key;
+        public BufferedImage output; //null once evicted
+
+        public Stage(String key, BufferedImage output){
+            this.key = key;
+            this.output = output;
+        }
+    }
+}
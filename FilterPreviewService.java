@@ -0,0 +1,204 @@
+package drawingbot.javafx;
+
+import drawingbot.DrawingBotV3;
+import drawingbot.image.FilterChainCache;
+import drawingbot.image.TiledImageFilter;
+import drawingbot.image.filters.ObservableImageFilter;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.util.Duration;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A low resolution preview of the image filters while a filter's settings are being edited, so each edit is shown straight away while the full resolution pass catches up.
+ * Edits are debounced, the filters are captured on the FX thread and the preview chain is run on a downscaled proxy of the source on its own service, any preview which is out of date is cancelled.
+ * The full resolution pass is held back while editing, it runs once the edits have stopped for {@link #idleDelay} or when the dialog is closed, the preview is shown in the viewport until it has finished.
+ * Filters with a pixel radius (e.g. blurs) will look stronger on the proxy than on the full image.
+ */
+public class FilterPreviewService {
+
+    public static int maxProxySize = 1024; //the longest side of the proxy in pixels
+
+    public Duration debounceDelay = Duration.millis(150);
+    public Duration idleDelay = Duration.millis(1000); //how long the edits must stop for before the full resolution pass runs
+
+    public final SimpleObjectProperty<BufferedImage> previewImage = new SimpleObjectProperty<>(null); //the filtered proxy, null when there's no preview to display
+
+    private final ExecutorService service;
+    private final FilterChainCache proxyCache = new FilterChainCache();
+    private final AtomicInteger generation = new AtomicInteger();
+    private PauseTransition debounce = null; //the timers are created on first use, so the service can be created without the fx toolkit e.g. in headless mode
+    private PauseTransition idle = null;
+    private PauseTransition hideCheck = null;
+    private boolean fullPassPending = false;
+    private final InvalidationListener settingsListener = observable -> requestPreview();
+
+    private ObservableImageFilter filter = null;
+    private Future<BufferedImage> proxy = null;
+    private Future<?> pending = null;
+
+    public FilterPreviewService(ExecutorService service){
+        this.service = service;
+    }
+
+    /**starts previewing edits to the filter's settings, must be called on the FX thread*/
+    public void start(ObservableImageFilter filter){
+        stop();
+        if(DrawingBotV3.INSTANCE.openImage.get() == null){
+            return;
+        }
+        this.filter = filter;
+        BufferedImage source = DrawingBotV3.INSTANCE.openImage.get().getSource();
+        this.proxy = service.submit(() -> createProxy(source));
+        filter.filterSettings.forEach(setting -> setting.addListener(settingsListener));
+    }
+
+    /**stops previewing, runs the full resolution pass if it was held back and hides the preview once it's done, must be called on the FX thread*/
+    public void stop(){
+        if(filter == null){
+            return;
+        }
+        filter.filterSettings.forEach(setting -> setting.removeListener(settingsListener));
+        filter = null;
+        proxy.cancel(false);
+        proxy = null;
+        if(debounce != null){
+            debounce.stop();
+        }
+        if(idle != null){
+            idle.stop();
+        }
+        cancelPending();
+        proxyCache.clear();
+        runFullPass();
+        hidePreviewAfterFullPass(generation.get());
+    }
+
+    public boolean isActive(){
+        return filter != null;
+    }
+
+    /**called when the image filters change, true if the full resolution pass should be held back until the edits stop, must be called on the FX thread*/
+    public boolean deferFullPass(){
+        if(!isActive()){
+            return false;
+        }
+        fullPassPending = true;
+        if(idle == null){
+            idle = new PauseTransition();
+            idle.setOnFinished(e -> runFullPass());
+        }
+        idle.setDuration(idleDelay);
+        idle.playFromStart();
+        return true;
+    }
+
+    public void requestPreview(){
+        if(!isActive()){
+            return;
+        }
+        if(debounce == null){
+            debounce = new PauseTransition();
+            debounce.setOnFinished(e -> runPreview());
+        }
+        debounce.setDuration(debounceDelay);
+        debounce.playFromStart();
+        deferFullPass(); //every edit changes the filters, even if the filter list doesn't report it
+    }
+
+    private void runFullPass(){
+        if(fullPassPending){
+            fullPassPending = false;
+            DrawingBotV3.INSTANCE.refilterImage();
+        }
+    }
+
+    /**the renderer runs the full pass on the image filtering service, so once it has taken the dirty flag the preview is hidden after the service's queued work*/
+    private void hidePreviewAfterFullPass(int current){
+        if(current != generation.get()){
+            return; //previewing again
+        }
+        if(DrawingBotV3.INSTANCE.hasPendingRenderWork()){
+            if(hideCheck == null){
+                hideCheck = new PauseTransition(Duration.millis(50));
+            }
+            hideCheck.setOnFinished(e -> hidePreviewAfterFullPass(current));
+            hideCheck.playFromStart();
+            return;
+        }
+        DrawingBotV3.INSTANCE.imageFilteringService.submit(() -> Platform.runLater(() -> {
+            if(current == generation.get()){
+                hidePreview();
+            }
+        }));
+    }
+
+    private void hidePreview(){
+        if(previewImage.get() != null){
+            previewImage.set(null);
+            DrawingBotV3.INSTANCE.requestRedraw();
+        }
+    }
+
+    private void runPreview(){
+        if(!isActive()){
+            return;
+        }
+        cancelPending();
+        int current = generation.incrementAndGet();
+        Future<BufferedImage> source = proxy;
+        List<FilterChainCache.FilterSnapshot> filters = FilterChainCache.snapshot(DrawingBotV3.INSTANCE.currentFilters);
+        pending = service.submit(() -> {
+            if(current != generation.get()){
+                return; //superseded before it started
+            }
+            try{
+                BufferedImage filtered = proxyCache.applySnapshot(source.get(), filters, (op, image) -> TiledImageFilter.filter(DrawingBotV3.INSTANCE.getForkJoinPool(), op, image));
+                Platform.runLater(() -> {
+                    if(current == generation.get() && isActive()){
+                        previewImage.set(filtered);
+                        DrawingBotV3.INSTANCE.requestRedraw();
+                    }
+                });
+            }catch (CancellationException e){
+                //the preview was stopped before the proxy was created
+            }catch (Exception e){
+                DrawingBotV3.logger.log(Level.WARNING, "Failed to update filter preview", e);
+            }
+        });
+    }
+
+    private void cancelPending(){
+        generation.incrementAndGet();
+        if(pending != null){
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    public static BufferedImage createProxy(BufferedImage source){
+        double scale = Math.min(1, (double) maxProxySize / Math.max(source.getWidth(), source.getHeight()));
+        if(scale == 1){
+            return source;
+        }
+        int width = Math.max(1, (int)Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int)Math.round(source.getHeight() * scale));
+        BufferedImage proxy = new BufferedImage(width, height, source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = proxy.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return proxy;
+    }
+}
@@ -196,6 +196,15 @@ public abstract class GenericSetting<C, V> implements ObservableValue<V> {
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**every setting's name and value as one string, for keying caches on the settings, the values are stringified as they are in {@link #toJsonMap(List, HashMap)}*/
+    public static String createKey(List<GenericSetting<?, ?>> list){
+        StringBuilder builder = new StringBuilder();
+        for(GenericSetting<?, ?> setting : list){
+            builder.append(';').append(setting.settingName.get()).append('=').append(setting.getValueAsString());
+        }
+        return builder.toString();
+    }
+
     public static HashMap<String, String> toJsonMap(List<GenericSetting<?, ?>> list, HashMap<String, String> dst){
         list.forEach(s -> {
             if(!s.value.get().equals(s.defaultValue)){
@@ -0,0 +1,179 @@
+package drawingbot.render;
+
+import drawingbot.geom.basic.IGeometry;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A static R-tree over the bounding boxes of a drawing's geometries, bulk loaded with Sort-Tile-Recursive packing.
+ * The tree is implicit, level 0 holds one box per geometry and every node of the level above covers {@link #NODE_CAPACITY} consecutive boxes of the level below,
+ * so it only costs four floats per box and can be built for millions of geometries.
+ * Queries return geometry indices in ascending order, so geometries are still drawn in their plotted order.
+ */
+public class GeometryRTree {
+
+    public static final int NODE_CAPACITY = 16;
+
+    private final int size;
+    private final int[] geometryIndex; //the geometry index of each level 0 box
+    private final int[] levelOffset; //the offset of each level in the box arrays
+    private final int[] levelSize;
+    private final float[] minX, minY, maxX, maxY;
+
+    public GeometryRTree(float[] boxMinX, float[] boxMinY, float[] boxMaxX, float[] boxMaxY, int size){
+        this.size = size;
+
+        int levels = 1;
+        int total = size;
+        for(int count = size; count > 1; count = ceilDiv(count, NODE_CAPACITY)){
+            total += ceilDiv(count, NODE_CAPACITY);
+            levels++;
+        }
+        levelOffset = new int[levels];
+        levelSize = new int[levels];
+        minX = new float[total];
+        minY = new float[total];
+        maxX = new float[total];
+        maxY = new float[total];
+
+        geometryIndex = sortTileRecursive(boxMinX, boxMinY, boxMaxX, boxMaxY, size);
+        for(int i = 0; i < size; i++){
+            int g = geometryIndex[i];
+            minX[i] = boxMinX[g];
+            minY[i] = boxMinY[g];
+            maxX[i] = boxMaxX[g];
+            maxY[i] = boxMaxY[g];
+        }
+        levelSize[0] = size;
+
+        for(int level = 1; level < levels; level++){
+            int childOffset = levelOffset[level - 1];
+            int childSize = levelSize[level - 1];
+            levelOffset[level] = childOffset + childSize;
+            levelSize[level] = ceilDiv(childSize, NODE_CAPACITY);
+            for(int node = 0; node < levelSize[level]; node++){
+                int n = levelOffset[level] + node;
+                minX[n] = minY[n] = Float.POSITIVE_INFINITY;
+                maxX[n] = maxY[n] = Float.NEGATIVE_INFINITY;
+                int end = Math.min(childSize, (node + 1) * NODE_CAPACITY);
+                for(int child = node * NODE_CAPACITY; child < end; child++){
+                    int c = childOffset + child;
+                    minX[n] = Math.min(minX[n], minX[c]);
+                    minY[n] = Math.min(minY[n], minY[c]);
+                    maxX[n] = Math.max(maxX[n], maxX[c]);
+                    maxY[n] = Math.max(maxY[n], maxY[c]);
+                }
+            }
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**the indices of every geometry whose bounds intersect the region, in ascending order*/
+    public int[] query(Rectangle2D region){
+        return query((float)region.getMinX(), (float)region.getMinY(), (float)region.getMaxX(), (float)region.getMaxY(), size);
+    }
+
+    /**the indices below maxIndex of every geometry whose bounds intersect the region, in ascending order, maxIndex is usually the displayed line count*/
+    public int[] query(float x0, float y0, float x1, float y1, int maxIndex){
+        if(size == 0){
+            return new int[0];
+        }
+        IntList result = new IntList();
+        search(levelOffset.length - 1, 0, x0, y0, x1, y1, maxIndex, result);
+        int[] indices = result.toArray();
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private void search(int level, int node, float x0, float y0, float x1, float y1, int maxIndex, IntList result){
+        int n = levelOffset[level] + node;
+        if(maxX[n] < x0 || minX[n] > x1 || maxY[n] < y0 || minY[n] > y1){
+            return;
+        }
+        if(level == 0){
+            if(geometryIndex[node] < maxIndex){
+                result.add(geometryIndex[node]);
+            }
+            return;
+        }
+        int end = Math.min(levelSize[level - 1], (node + 1) * NODE_CAPACITY);
+        for(int child = node * NODE_CAPACITY; child < end; child++){
+            search(level - 1, child, x0, y0, x1, y1, maxIndex, result);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static GeometryRTree build(List<IGeometry> geometries){
+        int size = geometries.size();
+        float[] minX = new float[size], minY = new float[size], maxX = new float[size], maxY = new float[size];
+        for(int i = 0; i < size; i++){
+            Rectangle2D bounds = geometries.get(i).getAWTShape().getBounds2D();
+            minX[i] = (float)bounds.getMinX();
+            minY[i] = (float)bounds.getMinY();
+            maxX[i] = (float)bounds.getMaxX();
+            maxY[i] = (float)bounds.getMaxY();
+        }
+        return new GeometryRTree(minX, minY, maxX, maxY, size);
+    }
+
+    /**orders the boxes into vertical slices by centre x, then by centre y within each slice, so consecutive runs of NODE_CAPACITY boxes are spatially close*/
+    private static int[] sortTileRecursive(float[] minX, float[] minY, float[] maxX, float[] maxY, int size){
+        long[] keys = new long[size];
+        for(int i = 0; i < size; i++){
+            keys[i] = sortKey((minX[i] + maxX[i]) / 2F, i);
+        }
+        Arrays.parallelSort(keys);
+
+        int leafCount = ceilDiv(size, NODE_CAPACITY);
+        int sliceCount = (int)Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = sliceCount * NODE_CAPACITY;
+        for(int start = 0; start < size; start += sliceSize){
+            int end = Math.min(size, start + sliceSize);
+            for(int i = start; i < end; i++){
+                int g = (int)keys[i];
+                keys[i] = sortKey((minY[g] + maxY[g]) / 2F, g);
+            }
+            Arrays.sort(keys, start, end);
+        }
+
+        int[] order = new int[size];
+        for(int i = 0; i < size; i++){
+            order[i] = (int)keys[i];
+        }
+        return order;
+    }
+
+    /**packs a float & an index into a long which sorts by the float first*/
+    private static long sortKey(float value, int index){
+        int bits = Float.floatToIntBits(value);
+        bits ^= (bits >> 31) & 0x7FFFFFFF; //flip negative floats so they sort as signed ints
+        return ((long)bits << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    private static int ceilDiv(int value, int divisor){
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static class IntList {
+
+        private int[] values = new int[64];
+        private int size = 0;
+
+        public void add(int value){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        public int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package drawingbot.render;
+
+import drawingbot.drawing.ObservableDrawingPen;
+import drawingbot.drawing.ObservableDrawingSet;
+import drawingbot.geom.basic.IGeometry;
+
+import java.awt.*;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Draws plotted geometries onto a Graphics2D, for the renderers which rasterise off the FX thread (tiles, checkpoints, exports).
+ * The pens are captured with {@link #capturePens(ObservableDrawingSet)} on the FX thread first, so the pens can change while the raster is being drawn.
+ */
+public class GeometryRasteriser {
+
+    public static PenStyle[] capturePens(ObservableDrawingSet drawingSet){
+        PenStyle[] pens = new PenStyle[drawingSet.pens.size()];
+        for(int i = 0; i < pens.length; i++){
+            ObservableDrawingPen pen = drawingSet.pens.get(i);
+            javafx.scene.paint.Color colour = pen.javaFXColour.get();
+            pens[i] = new PenStyle(new Color((float)colour.getRed(), (float)colour.getGreen(), (float)colour.getBlue(), (float)colour.getOpacity()), pen.strokeSize.get(), pen.enable.get());
+        }
+        return pens;
+    }
+
+    /**the largest stroke width of any enabled pen, used to pad regions so strokes which overlap the edge of a tile / band aren't missed*/
+    public static float getMaxStrokeWidth(PenStyle[] pens){
+        float max = 0;
+        for(PenStyle pen : pens){
+            if(pen.enabled){
+                max = Math.max(max, pen.strokeWidth);
+            }
+        }
+        return max;
+    }
+
+    /**draws the geometries from start (inclusive) to end (exclusive)*/
+    public static void drawRange(Graphics2D graphics, List<IGeometry> geometries, int start, int end, PenStyle[] pens, int onlyPen){
+        for(int i = start; i < end; i++){
+            drawGeometry(graphics, geometries.get(i), pens, onlyPen);
+        }
+    }
+
+    /**draws the geometries at the given indices, in the order given*/
+    public static void drawIndices(Graphics2D graphics, List<IGeometry> geometries, int[] indices, PenStyle[] pens, int onlyPen){
+        for(int index : indices){
+            drawGeometry(graphics, geometries.get(index), pens, onlyPen);
+        }
+    }
+
+    /**
+     * @param onlyPen if not -1 only geometries drawn with this pen index are drawn
+     */
+    public static void drawGeometry(Graphics2D graphics, IGeometry geometry, PenStyle[] pens, int onlyPen){
+        int penIndex = geometry.getPenIndex();
+        if(penIndex < 0 || penIndex >= pens.length || (onlyPen != -1 && penIndex != onlyPen)){
+            return;
+        }
+        PenStyle pen = pens[penIndex];
+        if(!pen.enabled){
+            return;
+        }
+        graphics.setColor(pen.colour);
+        graphics.setStroke(pen.stroke);
+        graphics.draw(geometry.getAWTShape());
+    }
+
+    public static Graphics2D createGraphics(Image image){
+        Graphics2D graphics = (Graphics2D) image.getGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        return graphics;
+    }
+
+    public static class PenStyle {
+
+        public final Color colour;
+        public final float strokeWidth;
+        public final BasicStroke stroke;
+        public final boolean enabled;
+
+        public PenStyle(Color colour, float strokeWidth, boolean enabled){
+            this.colour = colour;
+            this.strokeWidth = strokeWidth;
+            this.stroke = new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PenStyle)) return false;
+            PenStyle other = (PenStyle) o;
+            return colour.equals(other.colour) && strokeWidth == other.strokeWidth && enabled == other.enabled;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(colour, strokeWidth, enabled);
+        }
+    }
+}
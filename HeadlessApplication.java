@@ -0,0 +1,198 @@
+package drawingbot;
+
+import drawingbot.api.API;
+import drawingbot.api.IDrawingPen;
+import drawingbot.api.IDrawingSet;
+import drawingbot.api_impl.DrawingBotV3API;
+import drawingbot.drawing.ObservableDrawingSet;
+import drawingbot.files.BatchProcessingTask;
+import drawingbot.files.ConfigFileHandler;
+import drawingbot.files.presets.JsonLoaderManager;
+import drawingbot.files.presets.types.PresetPFMSettings;
+import drawingbot.javafx.GenericPreset;
+import drawingbot.pfm.PFMFactory;
+import drawingbot.registry.MasterRegistry;
+import javafx.application.Platform;
+
+import java.io.File;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Runs the plotting pipeline from the command line, with no splash screen, FXML, renderer or DrawTimer.
+ * e.g. --headless --image photos/ --output plots/ --pfm "Sketch Lines PFM" --pfm-preset Default --pen-set "Copic:Dark Greys" --threads 8
+ */
+public class HeadlessApplication {
+
+    public static final Map<String, BatchProcessingTask.IBatchExporter> EXPORTERS = new LinkedHashMap<>();
+
+    static {
+        EXPORTERS.put("svg", BatchProcessingTask.SVG_EXPORTER);
+        EXPORTERS.put("png", BatchProcessingTask.PNG_EXPORTER);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if(options == null || !options.containsKey("image") || !options.containsKey("output")){
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        int exitCode = 1;
+        try{
+            exitCode = run(options) ? 0 : 1;
+        }catch (Exception e){
+            DrawingBotV3.logger.log(Level.SEVERE, "Headless: Failed", e);
+        }
+        System.exit(exitCode);
+    }
+
+    public static boolean run(Map<String, String> options) throws Exception {
+        DrawingBotV3.logger.entering("HeadlessApplication", "run");
+
+        //only for the PlottingTasks, which are javafx Tasks that post their state & progress with Platform.runLater, nothing else in headless mode uses the toolkit & no stages are ever created
+        Platform.setImplicitExit(false);
+        Platform.startup(() -> {});
+
+        DrawingBotV3.logger.info("Loading Configuration");
+        ConfigFileHandler.init();
+
+        DrawingBotV3.logger.info("Loading API");
+        API.INSTANCE = new DrawingBotV3API();
+
+        DrawingBotV3.logger.info("Loading Registry");
+        MasterRegistry.init();
+
+        DrawingBotV3.logger.info("Init DrawingBotV3");
+        DrawingBotV3.INSTANCE = new DrawingBotV3();
+        DrawingBotV3.INSTANCE.observableDrawingSet = new ObservableDrawingSet(MasterRegistry.INSTANCE.getDefaultSet(MasterRegistry.INSTANCE.getDefaultSetType()));
+
+        DrawingBotV3.logger.info("Loading Json Files");
+        JsonLoaderManager.loadJSONFiles();
+
+        ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+        PFMFactory<?> pfmFactory = MasterRegistry.INSTANCE.getDefaultPFM();
+        if(options.containsKey("pfm")){
+            pfmFactory = findPFM(options.get("pfm"));
+            if(pfmFactory == null){
+                DrawingBotV3.logger.severe("Headless: Unknown PFM: " + options.get("pfm"));
+                return false;
+            }
+        }
+        DrawingBotV3.INSTANCE.pfmFactory.set(pfmFactory);
+
+        if(options.containsKey("pfm-preset")){
+            GenericPreset<PresetPFMSettings> preset = findPFMPreset(pfmFactory, options.get("pfm-preset"));
+            if(preset == null){
+                DrawingBotV3.logger.severe("Headless: Unknown PFM Preset: " + options.get("pfm-preset"));
+                return false;
+            }
+            JsonLoaderManager.PFM.applyPreset(preset);
+        }
+
+        if(options.containsKey("pen-set")){
+            IDrawingSet<IDrawingPen> drawingSet = findDrawingSet(options.get("pen-set"));
+            if(drawingSet == null){
+                DrawingBotV3.logger.severe("Headless: Unknown Pen Set: " + options.get("pen-set"));
+                return false;
+            }
+            DrawingBotV3.INSTANCE.observableDrawingSet.loadDrawingSet(drawingSet);
+        }
+
+        String format = options.getOrDefault("format", "svg").toLowerCase(Locale.ROOT);
+        BatchProcessingTask.IBatchExporter exporter = EXPORTERS.get(format);
+        if(exporter == null){
+            DrawingBotV3.logger.severe("Headless: Unsupported format: " + format + ", supported formats: " + EXPORTERS.keySet());
+            return false;
+        }
+
+        if(options.containsKey("threads")){
+            DrawingBotV3.INSTANCE.taskThreadCount.set(Integer.parseInt(options.get("threads")));
+            DrawingBotV3.INSTANCE.resetPlotting(); //the services are sized from the thread count when they're created
+        }
+
+        File input = new File(options.get("image"));
+        List<File> inputFiles = input.isDirectory() ? BatchProcessingTask.findImages(input) : Collections.singletonList(input);
+
+        ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+        BatchProcessingTask batchTask = new BatchProcessingTask(pfmFactory, DrawingBotV3.INSTANCE.observableDrawingSet, inputFiles, new File(options.get("output")), "." + format, exporter, options.containsKey("overwrite"));
+        boolean success;
+        try{
+            success = batchTask.processBatch(); //called directly, running the batch as a Task would post its state to the fx thread
+        }finally{
+            DrawingBotV3.INSTANCE.taskMonitor.removeChannel(batchTask); //the batch isn't queued, so the monitor never sees it finish
+        }
+        DrawingBotV3.logger.info("Headless: " + batchTask.getBatchStatus());
+
+        DrawingBotV3.logger.exiting("HeadlessApplication", "run");
+        return success;
+    }
+
+    public static PFMFactory<?> findPFM(String name){
+        for(PFMFactory<?> factory : MasterRegistry.INSTANCE.getObservablePFMLoaderList()){
+            if(factory.getName().equalsIgnoreCase(name)){
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    public static GenericPreset<PresetPFMSettings> findPFMPreset(PFMFactory<?> pfmFactory, String name){
+        for(GenericPreset<PresetPFMSettings> preset : MasterRegistry.INSTANCE.getObservablePFMPresetList(pfmFactory)){
+            if(preset.presetName.equalsIgnoreCase(name)){
+                return preset;
+            }
+        }
+        return null;
+    }
+
+    /**finds a drawing set from "type:name", e.g. "Copic:Dark Greys"*/
+    public static IDrawingSet<IDrawingPen> findDrawingSet(String codeName){
+        int split = codeName.indexOf(':');
+        if(split == -1){
+            return null;
+        }
+        List<IDrawingSet<IDrawingPen>> sets = MasterRegistry.INSTANCE.registeredSets.get(codeName.substring(0, split));
+        if(sets == null){
+            return null;
+        }
+        String name = codeName.substring(split + 1);
+        for(IDrawingSet<IDrawingPen> set : sets){
+            if(set.getName().equalsIgnoreCase(name)){
+                return set;
+            }
+        }
+        return null;
+    }
+
+    /**parses "--key value" pairs, flags with no value e.g. "--overwrite" are mapped to an empty string*/
+    public static Map<String, String> parseOptions(String[] args){
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++){
+            if(!args[i].startsWith("--")){
+                return null;
+            }
+            String key = args[i].substring(2);
+            if(i + 1 < args.length && !args[i + 1].startsWith("--")){
+                options.put(key, args[++i]);
+            }else{
+                options.put(key, "");
+            }
+        }
+        return options;
+    }
+
+    public static void printUsage(){
+        System.out.println("Usage: --headless --image <file or directory> --output <directory> [options]");
+        System.out.println("  --pfm <name>            the path finding module to use");
+        System.out.println("  --pfm-preset <name>     the pfm preset to apply");
+        System.out.println("  --pen-set <type:name>   the drawing set to use, e.g. \"Copic:Dark Greys\"");
+        System.out.println("  --format <format>       the output format: " + String.join(", ", EXPORTERS.keySet()));
+        System.out.println("  --threads <count>       the number of images to process at once");
+        System.out.println("  --overwrite             replace existing output files, otherwise they're skipped");
+        System.out.println("The plotting tasks still need the javafx toolkit, on machines with no display run with -Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw");
+    }
+
+}
@@ -1,9 +1,15 @@
 package drawingbot;
 
+import java.util.Arrays;
+
 ///Fixes JAVA FX loading from jars : https://stackoverflow.com/questions/52569724/javafx-11-create-a-jar-file-with-gradle
 public class Launcher {
 
     public static void main(String[] args) {
+		if(args.length >= 1 && args[0].equals("--headless")){
+			HeadlessApplication.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		FXApplication.main(args);
     }
 
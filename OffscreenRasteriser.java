@@ -0,0 +1,131 @@
+package drawingbot.render;
+
+import drawingbot.DrawingBotV3;
+import drawingbot.geom.basic.IGeometry;
+import drawingbot.image.blend.BlendCompositor;
+import drawingbot.image.blend.EnumBlendMode;
+import drawingbot.plotting.PlottingTask;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Renders a drawing to a large BufferedImage for image exports, the image is split into horizontal bands which are rasterised in parallel on a fork join pool and then stitched together.
+ * Each band is clipped to its own rows and drawn with the same transform as the full image, so a stroke crossing a band boundary is rasterised identically on both sides.
+ * NORMAL and most blend modes are drawn geometry by geometry with the mode's composite. Over an opaque background the order independent modes are drawn as one layer per pen, composited with {@link BlendCompositor}.
+ * Each layer starts as the mode's identity colour and its geometries are blended into it one by one, so a pen's overlapping strokes still blend with each other.
+ * Blending only depends on the pixel itself, so the band boundaries are seamless.
+ */
+public class OffscreenRasteriser {
+
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    public static BufferedImage rasterise(ForkJoinPool pool, PlottingTask task, GeometryRasteriser.PenStyle[] pens, EnumBlendMode blendMode, int width, int height, AffineTransform transform, Color background){
+        return rasterise(pool, task, task.plottedDrawing.geometries.size(), pens, blendMode, width, height, transform, background, DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * @param transform from drawing units to image pixels
+     * @param background the colour the image is cleared to, may be null for a transparent image
+     */
+    public static BufferedImage rasterise(ForkJoinPool pool, PlottingTask task, int displayedCount, GeometryRasteriser.PenStyle[] pens, EnumBlendMode blendMode, int width, int height, AffineTransform transform, Color background, int bandHeight){
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        List<IGeometry> geometries = task.plottedDrawing.geometries;
+        int end = Math.min(displayedCount, geometries.size());
+        GeometryRTree index = DrawingBotV3.INSTANCE == null ? null : DrawingBotV3.INSTANCE.getGeometryIndex(task);
+
+        List<ForkJoinTask<BufferedImage>> bands = new ArrayList<>();
+        for(int y = 0; y < height; y += bandHeight){
+            int bandY = y;
+            int bandRows = Math.min(bandHeight, height - y);
+            bands.add(pool.submit(() -> rasteriseBand(geometries, end, index, pens, blendMode, width, bandY, bandRows, transform, background)));
+        }
+
+        for(int i = 0; i < bands.size(); i++){
+            result.getRaster().setDataElements(0, i * bandHeight, bands.get(i).join().getRaster());
+        }
+        return result;
+    }
+
+    private static BufferedImage rasteriseBand(List<IGeometry> geometries, int end, GeometryRTree index, GeometryRasteriser.PenStyle[] pens, EnumBlendMode blendMode, int width, int bandY, int bandRows, AffineTransform transform, Color background){
+        BufferedImage band = new BufferedImage(width, bandRows, BufferedImage.TYPE_INT_ARGB);
+        if(background != null){
+            Graphics2D graphics = band.createGraphics();
+            graphics.setColor(background);
+            graphics.fillRect(0, 0, width, bandRows);
+            graphics.dispose();
+        }
+
+        int[] indices = index == null ? null : queryBand(index, end, pens, width, bandY, bandRows, transform);
+        if(blendMode == null || blendMode == EnumBlendMode.NORMAL){
+            drawBand(band, geometries, end, indices, pens, -1, bandY, transform, null);
+            return band;
+        }
+        Composite composite = BlendCompositor.getComposite(blendMode);
+        if(!BlendCompositor.isOrderIndependent(blendMode) || background == null || background.getAlpha() != 255){
+            drawBand(band, geometries, end, indices, pens, -1, bandY, transform, composite);
+            return band;
+        }
+
+        int identity = getIdentityColour(blendMode);
+        int[] bandPixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        BufferedImage layer = new BufferedImage(width, bandRows, BufferedImage.TYPE_INT_ARGB);
+        int[] layerPixels = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+        for(int pen = 0; pen < pens.length; pen++){
+            if(!pens[pen].enabled){
+                continue;
+            }
+            Arrays.fill(layerPixels, identity);
+            drawBand(layer, geometries, end, indices, pens, pen, bandY, transform, composite);
+            for(int i = 0; i < layerPixels.length; i++){
+                if(layerPixels[i] == identity){
+                    layerPixels[i] = 0; //untouched, blending with the identity still rounds so it's skipped
+                }
+            }
+            BlendCompositor.composite(blendMode, layerPixels, bandPixels, 0, layerPixels.length);
+        }
+        return band;
+    }
+
+    /**the opaque colour which leaves the destination unchanged, blending every geometry into it gives the factor the pen's layer applies to the band*/
+    private static int getIdentityColour(EnumBlendMode blendMode){
+        return blendMode == EnumBlendMode.SCREEN ? 0xFF000000 : 0xFFFFFFFF;
+    }
+
+    /**@param composite the composite to draw each geometry with, or null for SrcOver*/
+    private static void drawBand(BufferedImage band, List<IGeometry> geometries, int end, int[] indices, GeometryRasteriser.PenStyle[] pens, int onlyPen, int bandY, AffineTransform transform, Composite composite){
+        Graphics2D graphics = GeometryRasteriser.createGraphics(band);
+        if(composite != null){
+            graphics.setComposite(composite);
+        }
+        graphics.clipRect(0, 0, band.getWidth(), band.getHeight());
+        graphics.translate(0, -bandY);
+        graphics.transform(transform);
+        if(indices != null){
+            GeometryRasteriser.drawIndices(graphics, geometries, indices, pens, onlyPen);
+        }else{
+            GeometryRasteriser.drawRange(graphics, geometries, 0, end, pens, onlyPen);
+        }
+        graphics.dispose();
+    }
+
+    /**the geometries which could touch the band, padded by the widest stroke, or null if the band can't be mapped back to drawing units*/
+    private static int[] queryBand(GeometryRTree index, int end, GeometryRasteriser.PenStyle[] pens, int width, int bandY, int bandRows, AffineTransform transform){
+        try{
+            Rectangle2D region = transform.createInverse().createTransformedShape(new Rectangle2D.Double(0, bandY, width, bandRows)).getBounds2D();
+            double pad = GeometryRasteriser.getMaxStrokeWidth(pens);
+            return index.query((float)(region.getMinX() - pad), (float)(region.getMinY() - pad), (float)(region.getMaxX() + pad), (float)(region.getMaxY() + pad), end);
+        }catch (NoninvertibleTransformException e){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package drawingbot.geom;
+
+import drawingbot.DrawingBotV3;
+import drawingbot.files.ConfigFileHandler;
+import drawingbot.geom.basic.IGeometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs the path optimisation stages as one pass, each geometry is flattened, simplified and filtered in a reused buffer and appended straight to a single {@link PolylineSet}, which the merge and sort stages then index directly.
+ * No list of intermediate geometries is built, the drawing is only ever held as primitive polylines, at most two sets at a time.
+ * On a pool the geometries are split into chunks which are each streamed into their own set by one worker, then joined in order, merging is also split across the pool, see {@link PolylineMerger}.
+ * Tolerances are given in the units of the geometries, see {@link #fromApplicationSettings(float)} for the Export Settings.
+ */
+public class PathOptimisationPipeline {
+
+    public static int minGeometriesPerChunk = 4096;
+
+    public double flatness = 0.1; //the maximum distance a flattened curve may be from the original
+
+    public boolean simplify = false;
+    public float simplifyTolerance = 0;
+
+    public boolean merge = false;
+    public float mergeTolerance = 0;
+
+    public boolean filter = false;
+    public float filterTolerance = 0; //polylines shorter than this are removed
+
+    public boolean sort = false;
+    public float sortTolerance = 0;
+
+    public boolean travelOptimisation = false;
+    public long travelTimeLimit = 0; //milliseconds
+
+    /**
+     * @param unitsPerMM the size of 1 mm in the units of the geometries, e.g. pixels per mm
+     */
+    public static PathOptimisationPipeline fromApplicationSettings(float unitsPerMM){
+        PathOptimisationPipeline pipeline = new PathOptimisationPipeline();
+        pipeline.flatness = 0.1 * unitsPerMM;
+
+        pipeline.simplify = ConfigFileHandler.getApplicationSettings().lineSimplifyEnabled;
+        pipeline.simplifyTolerance = ConfigFileHandler.getApplicationSettings().lineSimplifyTolerance * ConfigFileHandler.getApplicationSettings().lineSimplifyUnits.convertToMM * unitsPerMM;
+
+        pipeline.merge = ConfigFileHandler.getApplicationSettings().lineMergingEnabled;
+        pipeline.mergeTolerance = ConfigFileHandler.getApplicationSettings().lineMergingTolerance * ConfigFileHandler.getApplicationSettings().lineMergingUnits.convertToMM * unitsPerMM;
+
+        pipeline.filter = ConfigFileHandler.getApplicationSettings().lineFilteringEnabled;
+        pipeline.filterTolerance = ConfigFileHandler.getApplicationSettings().lineFilteringTolerance * ConfigFileHandler.getApplicationSettings().lineFilteringUnits.convertToMM * unitsPerMM;
+
+        pipeline.sort = ConfigFileHandler.getApplicationSettings().lineSortingEnabled;
+        pipeline.sortTolerance = ConfigFileHandler.getApplicationSettings().lineSortingTolerance * ConfigFileHandler.getApplicationSettings().lineSortingUnits.convertToMM * unitsPerMM;
+
+        pipeline.travelOptimisation = pipeline.sort && DrawingBotV3.INSTANCE.travelOptimisationEnabled.get();
+        pipeline.travelTimeLimit = (long)(DrawingBotV3.INSTANCE.travelOptimisationTimeLimit.get() * 1000);
+        return pipeline;
+    }
+
+    /**a copy with every tolerance multiplied by the scale, e.g. from a pipeline in mm to the pixels of an image*/
+    public PathOptimisationPipeline scaled(float scale){
+        PathOptimisationPipeline pipeline = new PathOptimisationPipeline();
+        pipeline.flatness = flatness * scale;
+        pipeline.simplify = simplify;
+        pipeline.simplifyTolerance = simplifyTolerance * scale;
+        pipeline.merge = merge;
+        pipeline.mergeTolerance = mergeTolerance * scale;
+        pipeline.filter = filter;
+        pipeline.filterTolerance = filterTolerance * scale;
+        pipeline.sort = sort;
+        pipeline.sortTolerance = sortTolerance * scale;
+        pipeline.travelOptimisation = travelOptimisation;
+        pipeline.travelTimeLimit = travelTimeLimit;
+        return pipeline;
+    }
+
+    public PolylineSet run(List<IGeometry> geometries, ForkJoinPool pool){
+        //short polylines can only be filtered before merging if nothing will merge them
+        boolean filterEarly = filter && !merge;
+        PolylineSet result = stream(geometries, filterEarly, pool);
+        if(merge){
+            result = PolylineMerger.merge(result, mergeTolerance, pool);
+        }
+        int[] order = null;
+        if(filter && !filterEarly){
+            order = new int[result.size];
+            int kept = 0;
+            for(int i = 0; i < result.size; i++){
+                if(result.getLength(i) >= filterTolerance){
+                    order[kept++] = i;
+                }
+            }
+            order = Arrays.copyOf(order, kept);
+        }
+        if(sort){
+            //the sort index is built from the kept polylines only
+            int count = order == null ? result.size : order.length;
+            float[] startX = new float[count], startY = new float[count], endX = new float[count], endY = new float[count];
+            for(int n = 0; n < count; n++){
+                int i = order == null ? n : order[n];
+                startX[n] = result.getStartX(i);
+                startY[n] = result.getStartY(i);
+                endX[n] = result.getEndX(i);
+                endY[n] = result.getEndY(i);
+            }
+            PolylineSorter sorter = new PolylineSorter(startX, startY, endX, endY, count, sortTolerance);
+            sorter.sort(0, 0);
+            int[] sorted = sorter.order;
+            for(int n = 0; n < count; n++){
+                sorted[n] = order == null ? sorted[n] : order[sorted[n]];
+            }
+            result = result.reorder(sorted, sorter.reversed);
+        }else if(order != null){
+            result = result.reorder(order, null);
+        }
+        if(travelOptimisation){
+            result = TravelOptimiser.optimise(result, 0, 0, travelTimeLimit);
+        }
+        return result;
+    }
+
+    private PolylineSet stream(List<IGeometry> geometries, boolean filterEarly, ForkJoinPool pool){
+        int chunks = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism() * 4, geometries.size() / minGeometriesPerChunk));
+        if(chunks == 1){
+            return new Stream(filterEarly).run(geometries);
+        }
+        List<ForkJoinTask<PolylineSet>> tasks = new ArrayList<>();
+        int geometriesPerChunk = (geometries.size() + chunks - 1) / chunks;
+        for(int start = 0; start < geometries.size(); start += geometriesPerChunk){
+            List<IGeometry> chunk = geometries.subList(start, Math.min(geometries.size(), start + geometriesPerChunk));
+            tasks.add(pool.submit(() -> new Stream(filterEarly).run(chunk)));
+        }
+        int polylines = 0, points = 0;
+        for(ForkJoinTask<PolylineSet> task : tasks){
+            polylines += task.join().size;
+            points += task.join().pointCount;
+        }
+        PolylineSet set = new PolylineSet(polylines, points);
+        for(ForkJoinTask<PolylineSet> task : tasks){
+            set.addAll(task.join());
+        }
+        return set;
+    }
+
+    /**flattens one run of geometries into its own set, the buffers are reused for every polyline, so a stream must only be run by one thread*/
+    private class Stream {
+
+        private final boolean filterEarly;
+        private float[] simplified = new float[256];
+        private boolean[] keep = new boolean[128];
+        private final int[][] scratch = new int[][]{new int[256]};
+
+        private Stream(boolean filterEarly){
+            this.filterEarly = filterEarly;
+        }
+
+        private PolylineSet run(List<IGeometry> geometries){
+            PolylineSet set = new PolylineSet(geometries.size(), geometries.size() * 4);
+            PolylineSet.flatten(geometries, flatness, (points, pointCount, pen) -> append(set, points, pointCount, pen));
+            return set;
+        }
+
+        /**simplifies and filters a single flattened polyline, straight into the set*/
+        private void append(PolylineSet set, float[] points, int pointCount, int pen){
+            float[] source = points;
+            int count = pointCount;
+            if(simplify && pointCount > 2){
+                if(keep.length < pointCount){
+                    keep = new boolean[pointCount * 2];
+                    simplified = new float[pointCount * 4];
+                }
+                Arrays.fill(keep, 0, pointCount, false);
+                PolylineSimplifier.simplifyPolyline(points, 0, pointCount - 1, simplifyTolerance, keep, scratch);
+                count = 0;
+                for(int p = 0; p < pointCount; p++){
+                    if(keep[p]){
+                        simplified[count * 2] = points[p * 2];
+                        simplified[count * 2 + 1] = points[p * 2 + 1];
+                        count++;
+                    }
+                }
+                source = simplified;
+            }
+            if(filterEarly){
+                double length = 0;
+                for(int p = 1; p < count && length < filterTolerance; p++){
+                    length += Math.hypot(source[p * 2] - source[p * 2 - 2], source[p * 2 + 1] - source[p * 2 - 1]);
+                }
+                if(length < filterTolerance){
+                    return;
+                }
+            }
+            set.add(source, count, pen);
+        }
+    }
+}
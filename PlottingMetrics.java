@@ -0,0 +1,213 @@
+package drawingbot.plotting;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import drawingbot.utils.EnumTaskStage;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Times every {@link EnumTaskStage} of every PlottingTask, each stage is committed as a {@link PlottingStageEvent} for JFR and added to a duration histogram per PFM & stage.
+ * The recent stage records and the histograms can be queried while the app is running or dumped as JSON / CSV.
+ */
+public class PlottingMetrics {
+
+    public static int maxRecords = 10000;
+
+    private final Map<PlottingTask, TaskTimer> timers = new WeakHashMap<>();
+    private final Map<String, StageHistogram> histograms = new TreeMap<>();
+    private final ArrayDeque<StageRecord> records = new ArrayDeque<>();
+
+    public synchronized void onTaskCreated(PlottingTask task, String pfmName, BufferedImage image){
+        timers.put(task, new TaskTimer(pfmName, image.getWidth(), image.getHeight()));
+    }
+
+    public synchronized StageRecord onStageFinished(PlottingTask task, EnumTaskStage stage){
+        TaskTimer timer = timers.get(task);
+        if(timer == null){
+            return null;
+        }
+        long now = System.nanoTime();
+        StageRecord record = new StageRecord(timer.pfmName, stage.name(), timer.imageWidth, timer.imageHeight, task.plottedDrawing.getGeometryCount(), task.plottedDrawing.getVertexCount(), now - timer.stageStart, System.currentTimeMillis());
+
+        PlottingStageEvent event = timer.event;
+        event.end();
+        if(event.shouldCommit()){
+            event.stage = record.stage;
+            event.pfm = record.pfm;
+            event.imageWidth = record.imageWidth;
+            event.imageHeight = record.imageHeight;
+            event.geometryCount = record.geometryCount;
+            event.vertexCount = record.vertexCount;
+            event.commit();
+        }
+        timer.startStage(now);
+
+        histograms.computeIfAbsent(record.pfm + " - " + record.stage, key -> new StageHistogram(record.pfm, record.stage)).add(record.durationNanos);
+        records.addLast(record);
+        while(records.size() > maxRecords){
+            records.removeFirst();
+        }
+        if(stage == EnumTaskStage.FINISHED){
+            timers.remove(task);
+        }
+        return record;
+    }
+
+    public synchronized List<StageRecord> getRecords(){
+        return new ArrayList<>(records);
+    }
+
+    public synchronized List<StageHistogram> getHistograms(){
+        List<StageHistogram> copy = new ArrayList<>();
+        histograms.values().forEach(h -> copy.add(h.copy()));
+        return copy;
+    }
+
+    public synchronized StageHistogram getHistogram(String pfmName, EnumTaskStage stage){
+        StageHistogram histogram = histograms.get(pfmName + " - " + stage.name());
+        return histogram == null ? null : histogram.copy();
+    }
+
+    public synchronized void clear(){
+        histograms.clear();
+        records.clear();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public void dumpJSON(File file) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("histograms", getHistograms());
+        report.put("records", getRecords());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try(FileWriter writer = new FileWriter(file)){
+            gson.toJson(report, writer);
+        }
+    }
+
+    public void dumpCSV(File file) throws IOException {
+        try(PrintWriter writer = new PrintWriter(new FileWriter(file))){
+            writer.println("timestamp,pfm,stage,imageWidth,imageHeight,geometryCount,vertexCount,durationMs");
+            for(StageRecord record : getRecords()){
+                writer.println(record.timestamp + "," + escapeCSV(record.pfm) + "," + record.stage + "," + record.imageWidth + "," + record.imageHeight + "," + record.geometryCount + "," + record.vertexCount + "," + record.durationNanos / 1_000_000D);
+            }
+        }
+    }
+
+    private static String escapeCSV(String value){
+        return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class TaskTimer {
+
+        public final String pfmName;
+        public final int imageWidth;
+        public final int imageHeight;
+        public long stageStart;
+        public PlottingStageEvent event;
+
+        public TaskTimer(String pfmName, int imageWidth, int imageHeight){
+            this.pfmName = pfmName;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            startStage(System.nanoTime());
+        }
+
+        public void startStage(long now){
+            stageStart = now;
+            event = new PlottingStageEvent();
+            event.begin();
+        }
+    }
+
+    public static class StageRecord {
+
+        public final String pfm;
+        public final String stage;
+        public final int imageWidth;
+        public final int imageHeight;
+        public final long geometryCount;
+        public final long vertexCount;
+        public final long durationNanos;
+        public final long timestamp;
+
+        public StageRecord(String pfm, String stage, int imageWidth, int imageHeight, long geometryCount, long vertexCount, long durationNanos, long timestamp){
+            this.pfm = pfm;
+            this.stage = stage;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.geometryCount = geometryCount;
+            this.vertexCount = vertexCount;
+            this.durationNanos = durationNanos;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**stage durations bucketed by powers of two milliseconds, bucket i holds durations from 2^(i-1) up to 2^i ms*/
+    public static class StageHistogram {
+
+        public static final int BUCKETS = 32;
+
+        public final String pfm;
+        public final String stage;
+        public long count;
+        public long totalNanos;
+        public long minNanos = Long.MAX_VALUE;
+        public long maxNanos;
+        public final long[] buckets = new long[BUCKETS];
+
+        public StageHistogram(String pfm, String stage){
+            this.pfm = pfm;
+            this.stage = stage;
+        }
+
+        public void add(long durationNanos){
+            count++;
+            totalNanos += durationNanos;
+            minNanos = Math.min(minNanos, durationNanos);
+            maxNanos = Math.max(maxNanos, durationNanos);
+            long millis = durationNanos / 1_000_000;
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis))]++;
+        }
+
+        public double getMeanMillis(){
+            return count == 0 ? 0 : totalNanos / (double)count / 1_000_000D;
+        }
+
+        /**the upper bound in milliseconds of the bucket containing the given percentile, e.g. 0.95*/
+        public long getPercentileMillis(double percentile){
+            long target = (long)Math.ceil(count * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += buckets[i];
+                if(seen >= target && seen > 0){
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        public StageHistogram copy(){
+            StageHistogram copy = new StageHistogram(pfm, stage);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.minNanos = minNanos;
+            copy.maxNanos = maxNanos;
+            System.arraycopy(buckets, 0, copy.buckets, 0, BUCKETS);
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return pfm + " - " + stage + ": count " + count + ", mean " + String.format("%.1f", getMeanMillis()) + " ms, p95 <= " + getPercentileMillis(0.95) + " ms";
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package drawingbot.plotting;
+
+import drawingbot.DrawingBotV3;
+import drawingbot.image.FilterChainCache;
+import drawingbot.image.filters.ObservableImageFilter;
+import drawingbot.javafx.GenericSetting;
+import drawingbot.pfm.PFMFactory;
+import drawingbot.utils.EnumColourSplitter;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Keeps recently finished PlottingTasks, keyed by a hash of everything which affects the PFM's output.
+ * The source image, the filter chain, the PFM and its settings, the colour splitter and the drawing area all go into the key, display options don't.
+ * Entries are evicted least recently used first, once the total vertex count of the cached drawings goes over {@link #maxCachedVertices}.
+ */
+public class PlottingResultCache {
+
+    public long maxCachedVertices = 20_000_000;
+
+    private final LinkedHashMap<String, PlottingTask> cache = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<PlottingTask, String> pendingTasks = new HashMap<>();
+    private final Map<BufferedImage, String> imageHashes = new WeakHashMap<>();
+    private final Consumer<PlottingTask> onEvicted;
+    private long cachedVertices = 0;
+
+    public PlottingResultCache(Consumer<PlottingTask> onEvicted){
+        this.onEvicted = onEvicted;
+    }
+
+    public synchronized PlottingTask get(String key){
+        return cache.get(key);
+    }
+
+    public synchronized boolean contains(PlottingTask task){
+        return cache.containsValue(task);
+    }
+
+    /**registers a task which has just been queued, it will be cached if it finishes normally*/
+    public synchronized void addPendingTask(PlottingTask task, String key){
+        pendingTasks.put(task, key);
+    }
+
+    /**stops the task from being cached, for tasks which were stopped early or cancelled*/
+    public synchronized void removePendingTask(PlottingTask task){
+        pendingTasks.remove(task);
+    }
+
+    public synchronized void onTaskFinished(PlottingTask task){
+        String key = pendingTasks.remove(task);
+        if(key == null || task.isCancelled()){
+            return;
+        }
+        PlottingTask previous = cache.put(key, task);
+        if(previous != null && previous != task){
+            cachedVertices -= previous.plottedDrawing.getVertexCount();
+            onEvicted.accept(previous);
+        }
+        cachedVertices += task.plottedDrawing.getVertexCount();
+        evict();
+    }
+
+    public synchronized void clear(){
+        List<PlottingTask> evicted = new ArrayList<>(cache.values());
+        cache.clear();
+        pendingTasks.clear();
+        cachedVertices = 0;
+        evicted.forEach(onEvicted);
+    }
+
+    private void evict(){
+        Iterator<PlottingTask> iterator = cache.values().iterator();
+        //always keep the most recent drawing, even if it's over the limit by itself
+        while(cachedVertices > maxCachedVertices && cache.size() > 1 && iterator.hasNext()){
+            PlottingTask task = iterator.next();
+            iterator.remove();
+            cachedVertices -= task.plottedDrawing.getVertexCount();
+            onEvicted.accept(task);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**hashes everything but the source image, this reads the observable settings so should be called on the fx thread, see {@link #createKey(String, String)}*/
+    public String createSettingsKey(List<ObservableImageFilter> filters, PFMFactory<?> pfmFactory, List<GenericSetting<?, ?>> pfmSettings, EnumColourSplitter splitter, DrawingBotV3 settings){
+        MessageDigest digest = createDigest();
+        for(ObservableImageFilter filter : filters){
+            update(digest, FilterChainCache.createKey(filter));
+        }
+
+        update(digest, pfmFactory.getName());
+        update(digest, GenericSetting.createKey(pfmSettings));
+        update(digest, String.valueOf(splitter));
+
+        update(digest, String.valueOf(settings.useOriginalSizing.get()));
+        update(digest, String.valueOf(settings.scalingMode.get()));
+        update(digest, String.valueOf(settings.inputUnits.get()));
+        update(digest, settings.drawingAreaWidth.get() + "," + settings.drawingAreaHeight.get());
+        update(digest, settings.drawingAreaPaddingLeft.get() + "," + settings.drawingAreaPaddingRight.get() + "," + settings.drawingAreaPaddingTop.get() + "," + settings.drawingAreaPaddingBottom.get());
+        update(digest, settings.optimiseForPrint.get() + "," + settings.targetPenWidth.get());
+        return toHex(digest.digest());
+    }
+
+    /**combines the image hash with the settings key, the image hash can be slow for large images so should be found off the fx thread, see {@link #getImageHash(BufferedImage)}*/
+    public String createKey(String imageHash, String settingsKey){
+        MessageDigest digest = createDigest();
+        update(digest, imageHash);
+        update(digest, settingsKey);
+        return toHex(digest.digest());
+    }
+
+    /**hashes the pixels of the image, the result is remembered for as long as the image is, so reopening or replotting an image only hashes it once*/
+    public String getImageHash(BufferedImage image){
+        synchronized (imageHashes){
+            String hash = imageHashes.get(image);
+            if(hash != null){
+                return hash;
+            }
+        }
+        MessageDigest digest = createDigest();
+        int width = image.getWidth();
+        int[] row = new int[width];
+        ByteBuffer buffer = ByteBuffer.allocate(width * 4);
+        digest.update(ByteBuffer.allocate(8).putInt(width).putInt(image.getHeight()).array());
+        for(int y = 0; y < image.getHeight(); y++){
+            image.getRGB(0, y, width, 1, row, 0, width);
+            buffer.clear();
+            buffer.asIntBuffer().put(row);
+            digest.update(buffer.array());
+        }
+        String hash = toHex(digest.digest());
+        synchronized (imageHashes){
+            imageHashes.put(image, hash);
+        }
+        return hash;
+    }
+
+    private static MessageDigest createDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value){
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0); //separator, so adjacent values can't run together
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
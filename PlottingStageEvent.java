@@ -0,0 +1,31 @@
+package drawingbot.plotting;
+
+import jdk.jfr.*;
+
+/**a JDK Flight Recorder event covering one {@link drawingbot.utils.EnumTaskStage} of a PlottingTask*/
+@Name("drawingbot.PlottingStage")
+@Label("Plotting Stage")
+@Category({"DrawingBotV3", "Plotting"})
+@Description("One stage of a plotting task, from the end of the previous stage to the end of this one")
+@StackTrace(false)
+public class PlottingStageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("PFM")
+    public String pfm;
+
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+
+    @Label("Geometry Count")
+    public long geometryCount;
+
+    @Label("Vertex Count")
+    public long vertexCount;
+
+}
@@ -0,0 +1,250 @@
+package drawingbot.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Joins polylines of the same pen whose endpoints are within the merge tolerance into continuous chains.
+ * Endpoints are hashed into a grid with cells the size of the tolerance, so each endpoint only compares against the 3x3 cells around it.
+ * Merging runs in rounds, every free endpoint finds its nearest candidate in parallel across bands of grid rows, only reading the state from the start of the round,
+ * then the pairs which are each other's nearest are linked serially in grid order, skipping any which would close a loop. Rounds repeat until nothing links.
+ * The parallel part only reads shared state, so the result is identical to running it serially, see {@link #merge(PolylineSet, float, ForkJoinPool)} with a null pool.
+ */
+public class PolylineMerger {
+
+    public static int minEndpointsPerBand = 4096;
+
+    private final PolylineSet set;
+    private final float tolerance;
+    private final int endpointCount;
+
+    private final float[] x, y; //endpoint e belongs to polyline e / 2, even is the start, odd the end
+    private final int[] link; //the endpoint each endpoint is joined to, or -1
+    private final int[] parent; //union find over polylines, to stop chains joining into loops
+    private final int[] root; //the chain of each polyline at the start of the round
+    private final int[] nearest;
+
+    private float minX, minY, cellSize;
+    private int gridWidth, gridHeight;
+    private int[] cellStart, cellItems;
+
+    private PolylineMerger(PolylineSet set, float tolerance){
+        this.set = set;
+        this.tolerance = tolerance;
+        this.endpointCount = set.size * 2;
+        this.x = new float[endpointCount];
+        this.y = new float[endpointCount];
+        this.link = new int[endpointCount];
+        this.nearest = new int[endpointCount];
+        this.parent = new int[set.size];
+        this.root = new int[set.size];
+        for(int i = 0; i < set.size; i++){
+            x[i * 2] = set.getStartX(i);
+            y[i * 2] = set.getStartY(i);
+            x[i * 2 + 1] = set.getEndX(i);
+            y[i * 2 + 1] = set.getEndY(i);
+            parent[i] = i;
+        }
+        Arrays.fill(link, -1);
+    }
+
+    /**
+     * @param pool the pool to search for candidates on, or null to run serially, the result is the same either way
+     * @return a new set with the merged chains, in the order of the first polyline of each chain
+     */
+    public static PolylineSet merge(PolylineSet set, float tolerance, ForkJoinPool pool){
+        if(set.size < 2){
+            return set;
+        }
+        PolylineMerger merger = new PolylineMerger(set, tolerance);
+        merger.buildGrid();
+        merger.link(pool);
+        return merger.assembleChains();
+    }
+
+    private void link(ForkJoinPool pool){
+        //endpoints in grid order, so each contiguous range is a band of grid rows
+        int[] active = Arrays.copyOf(cellItems, endpointCount);
+        int activeCount = endpointCount;
+        while(activeCount > 0){
+            for(int i = 0; i < set.size; i++){
+                root[i] = find(i);
+            }
+            findCandidates(pool, active, activeCount);
+
+            //link the mutual pairs serially in grid order, the deterministic fix up where bands meet and for pairs found in the same round which would close a loop
+            boolean linked = false;
+            int nextCount = 0;
+            for(int n = 0; n < activeCount; n++){
+                int e = active[n];
+                int f = nearest[e];
+                if(f == -1 || link[e] != -1){
+                    continue; //endpoints without a candidate now will never have one, as candidates only disappear
+                }
+                active[nextCount++] = e;
+                if(e < f && nearest[f] == e){
+                    int a = find(e >> 1), b = find(f >> 1);
+                    if(a != b){
+                        link[e] = f;
+                        link[f] = e;
+                        parent[Math.max(a, b)] = Math.min(a, b);
+                        linked = true;
+                    }
+                }
+            }
+            if(!linked){
+                break;
+            }
+            //drop the endpoints which were just linked
+            int kept = 0;
+            for(int n = 0; n < nextCount; n++){
+                if(link[active[n]] == -1){
+                    active[kept++] = active[n];
+                }
+            }
+            activeCount = kept;
+        }
+    }
+
+    private void findCandidates(ForkJoinPool pool, int[] active, int activeCount){
+        int bands = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism() * 4, activeCount / minEndpointsPerBand));
+        if(bands == 1){
+            findCandidates(active, 0, activeCount);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        int perBand = (activeCount + bands - 1) / bands;
+        for(int start = 0; start < activeCount; start += perBand){
+            int from = start, to = Math.min(activeCount, start + perBand);
+            tasks.add(pool.submit(() -> findCandidates(active, from, to)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+    }
+
+    /**only reads the shared state, each endpoint only writes its own nearest candidate*/
+    private void findCandidates(int[] active, int from, int to){
+        double toleranceSq = (double)tolerance * tolerance;
+        for(int n = from; n < to; n++){
+            int e = active[n];
+            int polyline = e >> 1;
+            int pen = set.pens[polyline];
+            int cx = getCellX(x[e]), cy = getCellY(y[e]);
+            int best = -1;
+            double bestDistance = Double.MAX_VALUE;
+            for(int gy = Math.max(0, cy - 1); gy <= Math.min(gridHeight - 1, cy + 1); gy++){
+                for(int gx = Math.max(0, cx - 1); gx <= Math.min(gridWidth - 1, cx + 1); gx++){
+                    int cell = gy * gridWidth + gx;
+                    for(int c = cellStart[cell]; c < cellStart[cell + 1]; c++){
+                        int f = cellItems[c];
+                        int other = f >> 1;
+                        if(other == polyline || link[f] != -1 || set.pens[other] != pen || root[other] == root[polyline]){
+                            continue;
+                        }
+                        double dx = x[f] - x[e], dy = y[f] - y[e];
+                        double distance = dx * dx + dy * dy;
+                        if(distance <= toleranceSq && (distance < bestDistance || (distance == bestDistance && f < best))){
+                            best = f;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            nearest[e] = best;
+        }
+    }
+
+    private PolylineSet assembleChains(){
+        PolylineSet result = new PolylineSet(set.size, set.pointCount);
+        boolean[] used = new boolean[set.size];
+        for(int i = 0; i < set.size; i++){
+            if(used[i]){
+                continue;
+            }
+            //walk back to the free end of the chain, so it's drawn from one end to the other
+            int entry = i * 2;
+            int walk = i;
+            if(link[i * 2] != -1){
+                int exit = i * 2;
+                while(link[exit] != -1){
+                    int previous = link[exit] >> 1;
+                    int previousEntry = link[exit];
+                    exit = previousEntry ^ 1;
+                    walk = previous;
+                }
+                entry = exit;
+            }
+            int polyline = walk;
+            boolean first = true;
+            while(true){
+                used[polyline] = true;
+                boolean reversed = (entry & 1) == 1;
+                boolean skipFirst = !first && x[entry] == x[link[entry]] && y[entry] == y[link[entry]];
+                result.appendPoints(set, polyline, reversed, skipFirst);
+                first = false;
+                int exit = entry ^ 1;
+                if(link[exit] == -1){
+                    break;
+                }
+                entry = link[exit];
+                polyline = entry >> 1;
+            }
+            result.endPolyline(set.pens[i]);
+        }
+        return result;
+    }
+
+    private int find(int i){
+        while(parent[i] != i){
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void buildGrid(){
+        minX = minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for(int e = 0; e < endpointCount; e++){
+            minX = Math.min(minX, x[e]);
+            minY = Math.min(minY, y[e]);
+            maxX = Math.max(maxX, x[e]);
+            maxY = Math.max(maxY, y[e]);
+        }
+        //cells are the size of the tolerance, but never so small that there are more cells than a few per endpoint
+        float width = Math.max(maxX - minX, 1e-6F), height = Math.max(maxY - minY, 1e-6F);
+        cellSize = (float)Math.max(Math.max(tolerance, 1e-6F), Math.sqrt(width * height / (endpointCount * 4D)));
+        gridWidth = (int)Math.min(1 << 15, width / cellSize + 1);
+        gridHeight = (int)Math.min(1 << 15, height / cellSize + 1);
+        cellSize = Math.max(cellSize, Math.max(width / (gridWidth - 0.5F), height / (gridHeight - 0.5F)));
+
+        int cells = gridWidth * gridHeight;
+        cellStart = new int[cells + 1];
+        int[] counts = new int[cells];
+        for(int e = 0; e < endpointCount; e++){
+            counts[getCell(e)]++;
+        }
+        for(int c = 0; c < cells; c++){
+            cellStart[c + 1] = cellStart[c] + counts[c];
+        }
+        cellItems = new int[endpointCount];
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        for(int e = 0; e < endpointCount; e++){
+            cellItems[fill[getCell(e)]++] = e;
+        }
+    }
+
+    private int getCell(int e){
+        return getCellY(y[e]) * gridWidth + getCellX(x[e]);
+    }
+
+    private int getCellX(float px){
+        return Math.max(0, Math.min(gridWidth - 1, (int)((px - minX) / cellSize)));
+    }
+
+    private int getCellY(float py){
+        return Math.max(0, Math.min(gridHeight - 1, (int)((py - minY) / cellSize)));
+    }
+}
@@ -0,0 +1,202 @@
+package drawingbot.geom;
+
+import drawingbot.geom.basic.IGeometry;
+
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A flat, primitive store of polylines for the path optimisation stages, so millions of segments can be sorted / merged / simplified without an object per point.
+ * Points are stored as interleaved x, y floats, polyline i uses the points from {@code offsets[i]} up to {@code offsets[i + 1]}, and has the pen {@code pens[i]}.
+ */
+public class PolylineSet {
+
+    public float[] coords;
+    public int[] offsets;
+    public int[] pens;
+    public int size = 0;
+    public int pointCount = 0;
+
+    public PolylineSet(){
+        this(64, 256);
+    }
+
+    public PolylineSet(int polylineCapacity, int pointCapacity){
+        this.coords = new float[pointCapacity * 2];
+        this.offsets = new int[polylineCapacity + 1];
+        this.pens = new int[polylineCapacity];
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**adds a polyline from the first pointCount points of the array (x, y interleaved)*/
+    public void add(float[] points, int pointCount, int pen){
+        addPoints(points, 0, pointCount);
+        endPolyline(pen);
+    }
+
+    /**adds points to the polyline currently being built, finish it with {@link #endPolyline(int)}*/
+    public void addPoints(float[] points, int fromPoint, int count){
+        ensurePointCapacity(pointCount + count);
+        System.arraycopy(points, fromPoint * 2, coords, pointCount * 2, count * 2);
+        pointCount += count;
+    }
+
+    public void addPoint(float x, float y){
+        ensurePointCapacity(pointCount + 1);
+        coords[pointCount * 2] = x;
+        coords[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    /**finishes the polyline made of the points added since the last one*/
+    public void endPolyline(int pen){
+        if(size >= pens.length){
+            pens = Arrays.copyOf(pens, Math.max(16, pens.length * 2));
+            offsets = Arrays.copyOf(offsets, pens.length + 1);
+        }
+        pens[size] = pen;
+        size++;
+        offsets[size] = pointCount;
+    }
+
+    /**adds every point of polyline i of the other set, in reverse if reversed, to the polyline being built, skipping the first point if it's a continuation*/
+    public void appendPoints(PolylineSet other, int i, boolean reversed, boolean skipFirst){
+        int start = other.offsets[i], end = other.offsets[i + 1];
+        ensurePointCapacity(pointCount + (end - start));
+        for(int n = skipFirst ? 1 : 0; n < end - start; n++){
+            int p = reversed ? end - 1 - n : start + n;
+            coords[pointCount * 2] = other.coords[p * 2];
+            coords[pointCount * 2 + 1] = other.coords[p * 2 + 1];
+            pointCount++;
+        }
+    }
+
+    /**adds every polyline of the other set after those already added, in order*/
+    public void addAll(PolylineSet other){
+        for(int i = 0; i < other.size; i++){
+            addPoints(other.coords, other.offsets[i], other.getPointCount(i));
+            endPolyline(other.pens[i]);
+        }
+    }
+
+    private void ensurePointCapacity(int points){
+        if(points * 2 > coords.length){
+            coords = Arrays.copyOf(coords, Math.max(points * 2, coords.length * 2));
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getPointCount(int i){
+        return offsets[i + 1] - offsets[i];
+    }
+
+    public float getStartX(int i){
+        return coords[offsets[i] * 2];
+    }
+
+    public float getStartY(int i){
+        return coords[offsets[i] * 2 + 1];
+    }
+
+    public float getEndX(int i){
+        return coords[(offsets[i + 1] - 1) * 2];
+    }
+
+    public float getEndY(int i){
+        return coords[(offsets[i + 1] - 1) * 2 + 1];
+    }
+
+    /**the length of polyline i*/
+    public double getLength(int i){
+        double length = 0;
+        for(int p = offsets[i] + 1; p < offsets[i + 1]; p++){
+            length += Math.hypot(coords[p * 2] - coords[p * 2 - 2], coords[p * 2 + 1] - coords[p * 2 - 1]);
+        }
+        return length;
+    }
+
+    /**the total pen up distance when the polylines are drawn in order, starting from the origin*/
+    public double getTravelDistance(){
+        double distance = 0;
+        float x = 0, y = 0;
+        for(int i = 0; i < size; i++){
+            distance += Math.hypot(getStartX(i) - x, getStartY(i) - y);
+            x = getEndX(i);
+            y = getEndY(i);
+        }
+        return distance;
+    }
+
+    /**a new set with the polylines in the given order, reversing those which are flagged*/
+    public PolylineSet reorder(int[] order, boolean[] reversed){
+        PolylineSet result = new PolylineSet(order.length, pointCount);
+        for(int n = 0; n < order.length; n++){
+            int i = order[n];
+            result.appendPoints(this, i, reversed != null && reversed[n], false);
+            result.endPolyline(pens[i]);
+        }
+        return result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**flattens every geometry's shape into polylines, each sub path becomes its own polyline with the geometry's pen*/
+    public static PolylineSet fromGeometries(List<IGeometry> geometries, double flatness){
+        PolylineSet set = new PolylineSet(geometries.size(), geometries.size() * 4);
+        flatten(geometries, flatness, set::add);
+        return set;
+    }
+
+    /**
+     * flattens every geometry's shape and passes each sub path with more than one point to the consumer as soon as it's complete, lone points are dropped
+     * the points array is reused for every sub path, so consumers must copy any points they keep
+     */
+    public static void flatten(List<IGeometry> geometries, double flatness, IPolylineConsumer consumer){
+        float[] points = new float[256];
+        float[] segment = new float[6];
+        for(IGeometry geometry : geometries){
+            int pen = geometry.getPenIndex();
+            int count = 0;
+            for(PathIterator iterator = geometry.getAWTShape().getPathIterator(null, flatness); !iterator.isDone(); iterator.next()){
+                switch (iterator.currentSegment(segment)){
+                    case PathIterator.SEG_MOVETO:
+                        if(count > 1){
+                            consumer.accept(points, count, pen);
+                        }
+                        count = 0;
+                        //fall through, the move is the first point of the next sub path
+                    case PathIterator.SEG_LINETO:
+                        if(count * 2 + 2 > points.length){
+                            points = Arrays.copyOf(points, points.length * 2);
+                        }
+                        points[count * 2] = segment[0];
+                        points[count * 2 + 1] = segment[1];
+                        count++;
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        if(count > 0){
+                            if(count * 2 + 2 > points.length){
+                                points = Arrays.copyOf(points, points.length * 2);
+                            }
+                            points[count * 2] = points[0];
+                            points[count * 2 + 1] = points[1];
+                            count++;
+                        }
+                        break;
+                }
+            }
+            if(count > 1){
+                consumer.accept(points, count, pen);
+            }
+        }
+    }
+
+    public interface IPolylineConsumer {
+
+        void accept(float[] points, int pointCount, int pen);
+
+    }
+}
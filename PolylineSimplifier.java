@@ -0,0 +1,122 @@
+package drawingbot.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Simplifies every polyline of a set with Douglas-Peucker, each polyline is independent so the set is split into chunks of roughly equal point counts and simplified on the pool.
+ * The recursion runs on an explicit stack held in a per-worker scratch buffer, and the result is only marked in a shared keep flag per point, so simplifying a polyline allocates nothing.
+ * The kept points are then copied out in order, so the output has the same polylines in the same order as the input.
+ */
+public class PolylineSimplifier {
+
+    public static int minPointsPerChunk = 16384;
+
+    private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal.withInitial(() -> new int[][]{new int[256]});
+
+    /**
+     * @param tolerance the maximum distance a removed point may be from the simplified line, in the same units as the points
+     * @param pool the pool to simplify on, or null to run serially
+     * @return a new set with the simplified polylines
+     */
+    public static PolylineSet simplify(PolylineSet set, float tolerance, ForkJoinPool pool){
+        boolean[] keep = new boolean[set.pointCount];
+        int chunks = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism() * 4, set.pointCount / minPointsPerChunk));
+        if(chunks == 1){
+            simplifyRange(set, 0, set.size, tolerance, keep);
+        }else{
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            int pointsPerChunk = set.pointCount / chunks;
+            int start = 0;
+            while(start < set.size){
+                //split on polyline boundaries, so each chunk has about the same number of points
+                int end = start + 1;
+                while(end < set.size && set.offsets[end] - set.offsets[start] < pointsPerChunk){
+                    end++;
+                }
+                int from = start, to = end;
+                tasks.add(pool.submit(() -> simplifyRange(set, from, to, tolerance, keep)));
+                start = end;
+            }
+            tasks.forEach(ForkJoinTask::join);
+        }
+
+        int kept = 0;
+        for(boolean k : keep){
+            kept += k ? 1 : 0;
+        }
+        PolylineSet result = new PolylineSet(set.size, kept);
+        for(int i = 0; i < set.size; i++){
+            for(int p = set.offsets[i]; p < set.offsets[i + 1]; p++){
+                if(keep[p]){
+                    result.addPoint(set.coords[p * 2], set.coords[p * 2 + 1]);
+                }
+            }
+            result.endPolyline(set.pens[i]);
+        }
+        return result;
+    }
+
+    private static void simplifyRange(PolylineSet set, int from, int to, float tolerance, boolean[] keep){
+        int[][] scratch = SCRATCH.get();
+        for(int i = from; i < to; i++){
+            simplifyPolyline(set.coords, set.offsets[i], set.offsets[i + 1] - 1, tolerance, keep, scratch);
+        }
+    }
+
+    /**marks the points to keep between first and last inclusive, the scratch stack is grown in place if needed*/
+    static void simplifyPolyline(float[] coords, int first, int last, float tolerance, boolean[] keep, int[][] scratch){
+        keep[first] = true;
+        keep[last] = true;
+        if(last - first < 2){
+            return;
+        }
+        double toleranceSq = (double)tolerance * tolerance;
+        int[] stack = scratch[0];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while(top > 0){
+            int end = stack[--top];
+            int start = stack[--top];
+            double ax = coords[start * 2], ay = coords[start * 2 + 1];
+            double dx = coords[end * 2] - ax, dy = coords[end * 2 + 1] - ay;
+            double lengthSq = dx * dx + dy * dy;
+
+            int furthest = -1;
+            double furthestDistance = toleranceSq;
+            for(int p = start + 1; p < end; p++){
+                double px = coords[p * 2] - ax, py = coords[p * 2 + 1] - ay;
+                double distance;
+                if(lengthSq == 0){
+                    distance = px * px + py * py;
+                }else{
+                    //squared perpendicular distance from the line through start and end
+                    double cross = px * dy - py * dx;
+                    distance = cross * cross / lengthSq;
+                }
+                if(distance > furthestDistance){
+                    furthest = p;
+                    furthestDistance = distance;
+                }
+            }
+            if(furthest != -1){
+                keep[furthest] = true;
+                if(top + 4 > stack.length){
+                    stack = scratch[0] = Arrays.copyOf(stack, stack.length * 2);
+                }
+                if(furthest - start > 1){
+                    stack[top++] = start;
+                    stack[top++] = furthest;
+                }
+                if(end - furthest > 1){
+                    stack[top++] = furthest;
+                    stack[top++] = end;
+                }
+            }
+        }
+    }
+}
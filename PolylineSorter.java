@@ -0,0 +1,197 @@
+package drawingbot.geom;
+
+import java.util.Arrays;
+
+/**
+ * Orders polylines to minimise pen up travel, always moving to the nearest unvisited endpoint and reversing a polyline if its end is the nearer one.
+ * The endpoints are held in a uniform grid, each step searches outward ring by ring from the pen's position and stops as soon as no closer endpoint can exist, visited polylines are removed from their cells.
+ * The grid is rebuilt from the remaining endpoints when most have been visited, so the search never scans large empty areas, sorting is O(n log n) in practice instead of O(n^2).
+ */
+public class PolylineSorter {
+
+    public static int targetPointsPerCell = 2;
+
+    public final int[] order;
+    public final boolean[] reversed;
+
+    private final float[] x; //endpoint e belongs to polyline e / 2, even is the start, odd the end
+    private final float[] y;
+    private final boolean[] visited;
+    private final float tolerance;
+
+    private int remaining;
+    private float minX, minY, cellSize;
+    private int gridWidth, gridHeight;
+    private int[] cellStart; //the endpoints of cell c are cellItems[cellStart[c]] to cellItems[cellStart[c + 1]]
+    private int[] cellItems;
+    private int[] cellLive; //unvisited endpoints in each cell
+    private int builtWith;
+
+    /**
+     * @param tolerance an endpoint this close to the pen is taken straight away, without looking for a closer one
+     */
+    public PolylineSorter(float[] startX, float[] startY, float[] endX, float[] endY, int count, float tolerance){
+        this.order = new int[count];
+        this.reversed = new boolean[count];
+        this.x = new float[count * 2];
+        this.y = new float[count * 2];
+        this.visited = new boolean[count];
+        this.tolerance = tolerance;
+        this.remaining = count;
+        for(int i = 0; i < count; i++){
+            x[i * 2] = startX[i];
+            y[i * 2] = startY[i];
+            x[i * 2 + 1] = endX[i];
+            y[i * 2 + 1] = endY[i];
+        }
+    }
+
+    /**sorts the polylines of the set, starting from the origin*/
+    public static PolylineSet sort(PolylineSet set, float tolerance){
+        float[] startX = new float[set.size], startY = new float[set.size], endX = new float[set.size], endY = new float[set.size];
+        for(int i = 0; i < set.size; i++){
+            startX[i] = set.getStartX(i);
+            startY[i] = set.getStartY(i);
+            endX[i] = set.getEndX(i);
+            endY[i] = set.getEndY(i);
+        }
+        PolylineSorter sorter = new PolylineSorter(startX, startY, endX, endY, set.size, tolerance);
+        sorter.sort(0, 0);
+        return set.reorder(sorter.order, sorter.reversed);
+    }
+
+    public void sort(float originX, float originY){
+        float penX = originX, penY = originY;
+        int count = order.length;
+        buildGrid();
+        for(int n = 0; n < count; n++){
+            if(remaining > 256 && remaining < builtWith / 4){
+                buildGrid();
+            }
+            int endpoint = findNearest(penX, penY);
+            int polyline = endpoint >> 1;
+            boolean reverse = (endpoint & 1) == 1;
+            order[n] = polyline;
+            reversed[n] = reverse;
+            remove(polyline);
+            //the pen finishes at the other end of the polyline
+            int exit = reverse ? polyline * 2 : polyline * 2 + 1;
+            penX = x[exit];
+            penY = y[exit];
+        }
+    }
+
+    private int findNearest(float px, float py){
+        int cx = clamp((int)((px - minX) / cellSize), gridWidth);
+        int cy = clamp((int)((py - minY) / cellSize), gridHeight);
+        //a pen outside the grid needs extra rings to reach it
+        int outside = (int)Math.ceil(Math.max(Math.max(minX - px, px - (minX + gridWidth * cellSize)), Math.max(minY - py, py - (minY + gridHeight * cellSize))) / cellSize);
+        int maxRing = Math.max(gridWidth, gridHeight) + Math.max(0, outside);
+
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        double toleranceSq = (double)tolerance * tolerance;
+        for(int ring = 0; ring <= maxRing; ring++){
+            for(int gy = cy - ring; gy <= cy + ring; gy++){
+                if(gy < 0 || gy >= gridHeight){
+                    continue;
+                }
+                boolean edgeRow = gy == cy - ring || gy == cy + ring;
+                int step = edgeRow ? 1 : Math.max(1, ring * 2);
+                for(int gx = cx - ring; gx <= cx + ring; gx += step){
+                    if(gx < 0 || gx >= gridWidth){
+                        continue;
+                    }
+                    int cell = gy * gridWidth + gx;
+                    if(cellLive[cell] == 0){
+                        continue;
+                    }
+                    for(int c = cellStart[cell]; c < cellStart[cell + 1]; c++){
+                        int e = cellItems[c];
+                        if(visited[e >> 1]){
+                            continue;
+                        }
+                        double dx = x[e] - px, dy = y[e] - py;
+                        double distance = dx * dx + dy * dy;
+                        if(distance < bestDistance || (distance == bestDistance && e < best)){
+                            best = e;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            if(best != -1){
+                if(bestDistance <= toleranceSq){
+                    return best;
+                }
+                //every cell in the next ring is at least ring * cellSize away from the pen's cell
+                double reach = (ring - Math.max(0, outside)) * (double)cellSize;
+                if(reach > 0 && bestDistance <= reach * reach){
+                    return best;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void remove(int polyline){
+        visited[polyline] = true;
+        remaining--;
+        for(int e = polyline * 2; e <= polyline * 2 + 1; e++){
+            cellLive[getCell(x[e], y[e])]--;
+        }
+    }
+
+    /**builds the grid over the endpoints of the unvisited polylines*/
+    private void buildGrid(){
+        minX = Float.POSITIVE_INFINITY;
+        minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        int live = 0;
+        for(int e = 0; e < x.length; e++){
+            if(!visited[e >> 1]){
+                minX = Math.min(minX, x[e]);
+                minY = Math.min(minY, y[e]);
+                maxX = Math.max(maxX, x[e]);
+                maxY = Math.max(maxY, y[e]);
+                live++;
+            }
+        }
+        builtWith = live / 2;
+        if(live == 0){
+            minX = minY = 0;
+            maxX = maxY = 1;
+        }
+        float width = Math.max(maxX - minX, 1e-6F), height = Math.max(maxY - minY, 1e-6F);
+        int cells = Math.max(1, live / targetPointsPerCell);
+        cellSize = (float)Math.max(Math.sqrt(width * height / cells), Math.max(width, height) / 4096F);
+        gridWidth = Math.max(1, (int)(width / cellSize) + 1);
+        gridHeight = Math.max(1, (int)(height / cellSize) + 1);
+
+        cellStart = new int[gridWidth * gridHeight + 1];
+        cellLive = new int[gridWidth * gridHeight];
+        for(int e = 0; e < x.length; e++){
+            if(!visited[e >> 1]){
+                cellLive[getCell(x[e], y[e])]++;
+            }
+        }
+        for(int c = 0; c < cellLive.length; c++){
+            cellStart[c + 1] = cellStart[c] + cellLive[c];
+        }
+        cellItems = new int[live];
+        int[] fill = Arrays.copyOf(cellStart, cellLive.length);
+        for(int e = 0; e < x.length; e++){
+            if(!visited[e >> 1]){
+                cellItems[fill[getCell(x[e], y[e])]++] = e;
+            }
+        }
+    }
+
+    private int getCell(float px, float py){
+        return clamp((int)((py - minY) / cellSize), gridHeight) * gridWidth + clamp((int)((px - minX) / cellSize), gridWidth);
+    }
+
+    private static int clamp(int value, int size){
+        return value < 0 ? 0 : Math.min(size - 1, value);
+    }
+}
@@ -0,0 +1,73 @@
+package drawingbot.javafx;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Progress and statistics for one task, written by the worker thread and sampled by the {@link TaskMonitor} once per pulse.
+ * Every update is a single atomic write, so a PFM can report after every geometry without locking or queueing work on the FX thread.
+ */
+public class ProgressChannel {
+
+    private final AtomicLong progress = new AtomicLong(Double.doubleToRawLongBits(-1)); //-1 = not reported yet
+    private final AtomicReference<String> title = new AtomicReference<>(null);
+    private final AtomicReference<String> message = new AtomicReference<>(null);
+    private final AtomicLong geometryCount = new AtomicLong();
+    private final AtomicLong vertexCount = new AtomicLong();
+    private final AtomicBoolean hasCounts = new AtomicBoolean(false);
+
+    //// WORKER THREAD
+
+    public void setProgress(double workDone, double max){
+        progress.set(Double.doubleToRawLongBits(max <= 0 ? 0 : Math.min(1, workDone / max)));
+    }
+
+    public void setTitle(String title){
+        this.title.set(title);
+    }
+
+    public void setMessage(String message){
+        this.message.set(message);
+    }
+
+    public void addGeometry(long vertices){
+        hasCounts.set(true);
+        geometryCount.incrementAndGet();
+        vertexCount.addAndGet(vertices);
+    }
+
+    public void setCounts(long geometries, long vertices){
+        hasCounts.set(true);
+        geometryCount.set(geometries);
+        vertexCount.set(vertices);
+    }
+
+    //// SAMPLING
+
+    /**the reported progress from 0 to 1, or -1 if the task hasn't reported any*/
+    public double getProgress(){
+        return Double.longBitsToDouble(progress.get());
+    }
+
+    public String getTitle(){
+        return title.get();
+    }
+
+    public String getMessage(){
+        return message.get();
+    }
+
+    public long getGeometryCount(){
+        return geometryCount.get();
+    }
+
+    public long getVertexCount(){
+        return vertexCount.get();
+    }
+
+    /**true if the task itself has reported geometry / vertex counts through this channel, only the producer should write them*/
+    public boolean hasCounts(){
+        return hasCounts.get();
+    }
+}
@@ -0,0 +1,121 @@
+package drawingbot.image;
+
+import drawingbot.DrawingBotV3;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes very large images straight to the resolution the PFM needs, instead of decoding them at full resolution first.
+ * The image's size is read from its header, then it's decoded in a single pass with ImageIO source subsampling, the reader only keeps every nth row & column so the full resolution image is never held in memory.
+ * The subsampling is chosen so there are still {@link #pixelsPerPenWidth} pixels for every pen width across the drawing area.
+ */
+public class SubsampledImageReader {
+
+    public static float pixelsPerPenWidth = 2F;
+
+    /**reads the image at the resolution needed for the current drawing area & target pen width*/
+    public static BufferedImage readForDrawing(File file) throws IOException {
+        DrawingBotV3 app = DrawingBotV3.INSTANCE;
+        return readForDrawing(file, app.getDrawingWidthMM(), app.getDrawingHeightMM(), app.targetPenWidth.get());
+    }
+
+    /**reads the image at the resolution needed for the given drawing area & pen width, for threads which can't read the app's settings, see {@link #getSubsampling(int, int, float, float, float)}*/
+    public static BufferedImage readForDrawing(File file, float drawingWidthMM, float drawingHeightMM, float targetPenWidthMM) throws IOException {
+        Dimension size = readDimensions(file);
+        int subsampling = getSubsampling(size.width, size.height, drawingWidthMM, drawingHeightMM, targetPenWidthMM);
+        return read(file, subsampling);
+    }
+
+    /**reads the width & height from the image's header without decoding it*/
+    public static Dimension readDimensions(File file) throws IOException {
+        try(ImageInputStream stream = ImageIO.createImageInputStream(file)){
+            ImageReader reader = getReader(stream, file);
+            try{
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * the largest subsampling which still leaves enough pixels for the drawing, 1 if the image is already small enough or the drawing area isn't set
+     * @param drawingWidthMM the drawing area without padding, 0 if it's taken from the image
+     */
+    public static int getSubsampling(int imageWidth, int imageHeight, float drawingWidthMM, float drawingHeightMM, float targetPenWidthMM){
+        if(drawingWidthMM <= 0 || drawingHeightMM <= 0 || targetPenWidthMM <= 0){
+            return 1;
+        }
+        double requiredWidth = drawingWidthMM / targetPenWidthMM * pixelsPerPenWidth;
+        double requiredHeight = drawingHeightMM / targetPenWidthMM * pixelsPerPenWidth;
+        //the image is scaled to fit the drawing area, so the axis which needs the most pixels per image pixel decides
+        int subsampling = (int)Math.floor(Math.min(imageWidth / requiredWidth, imageHeight / requiredHeight));
+        return Math.max(1, subsampling);
+    }
+
+    /**decodes the image keeping every nth pixel in both directions, in one pass over the file*/
+    public static BufferedImage read(File file, int subsampling) throws IOException {
+        try(ImageInputStream stream = ImageIO.createImageInputStream(file)){
+            ImageReader reader = getReader(stream, file);
+            try{
+                reader.setInput(stream, true, true);
+                if(subsampling <= 1){
+                    return reader.read(0);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                DrawingBotV3.logger.info("Image Loading: Decoded " + file.getName() + " at 1/" + subsampling + " resolution, " + image.getWidth() + " x " + image.getHeight());
+                return image;
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * loads an image for {@link DrawingBotV3#openImage(File, boolean)} at the resolution needed for the drawing, the drawing area & target pen width are captured when it's created
+     */
+    public static class Loader extends BufferedImageLoader.Filtered {
+
+        public final File file;
+        public final float drawingWidthMM, drawingHeightMM, targetPenWidthMM;
+
+        /**must be created on the FX thread, as it reads the app's settings*/
+        public Loader(File file){
+            super(file.getAbsolutePath(), false);
+            this.file = file;
+            this.drawingWidthMM = DrawingBotV3.INSTANCE.getDrawingWidthMM();
+            this.drawingHeightMM = DrawingBotV3.INSTANCE.getDrawingHeightMM();
+            this.targetPenWidthMM = DrawingBotV3.INSTANCE.targetPenWidth.get();
+        }
+
+        @Override
+        protected FilteredBufferedImage call() throws Exception {
+            updateTitle("Importing Image: " + file.getName());
+            FilteredBufferedImage image = new FilteredBufferedImage(readForDrawing(file, drawingWidthMM, drawingHeightMM, targetPenWidthMM));
+            image.updateAll();
+            return image;
+        }
+    }
+
+    private static ImageReader getReader(ImageInputStream stream, File file) throws IOException {
+        if(stream == null){
+            throw new IOException("Unable to open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if(!readers.hasNext()){
+            throw new IOException("Unsupported image format: " + file);
+        }
+        return readers.next();
+    }
+}
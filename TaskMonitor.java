@@ -5,9 +5,13 @@ import drawingbot.files.ExportTask;
 import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
 public class TaskMonitor {
@@ -22,6 +26,15 @@ public class TaskMonitor {
     public SimpleStringProperty messageProperty = new SimpleStringProperty("");
     public SimpleObjectProperty<Throwable> exceptionProperty = new SimpleObjectProperty<>(null);
 
+    public SimpleLongProperty geometryCountProperty = new SimpleLongProperty(0); //of the latest running plotting task
+    public SimpleLongProperty vertexCountProperty = new SimpleLongProperty(0); //of the latest running plotting task
+
+    public final ObservableList<Task<?>> runningTasks = FXCollections.observableArrayList(); //every task currently running, in the order they started
+    private final Map<Task<?>, ProgressChannel> channels = new ConcurrentHashMap<>();
+
+    private int plottingCount = 0;
+    private int exportingCount = 0;
+
     public TaskMonitor(ExecutorService service){
         this.service = service;
     }
@@ -30,17 +43,19 @@ public class TaskMonitor {
         this.service = service;
         this.processingCount.set(0);
 
-        this.progressProperty.unbind();
-        this.progressProperty.set(0);
+        this.runningTasks.clear();
+        this.channels.clear();
+        this.plottingCount = 0;
+        this.exportingCount = 0;
+        this.isPlotting.set(false);
+        this.isExporting.set(false);
 
-        this.titleProperty.unbind();
+        this.progressProperty.set(0);
         this.titleProperty.set("");
-
-        this.messageProperty.unbind();
         this.messageProperty.set("");
-
-        this.exceptionProperty.unbind();
         this.exceptionProperty.set(null);
+        this.geometryCountProperty.set(0);
+        this.vertexCountProperty.set(0);
     }
 
     public String getCurrentTaskStatus(){
@@ -57,16 +72,36 @@ public class TaskMonitor {
             message = " - " + messageProperty.getValue();
         }
 
+        if(runningTasks.size() > 1){
+            message += " (+" + (runningTasks.size() - 1) + " more)";
+        }
+
         return title + message;
     }
 
+    /**the channel the task should report its progress and statistics through, safe to call from any thread*/
+    public ProgressChannel getChannel(Task<?> task){
+        return channels.computeIfAbsent(task, t -> new ProgressChannel());
+    }
+
+    /**the task's channel, or null if the task isn't monitored e.g. the plotting tasks of a batch, so reporting to it doesn't keep a channel no one will remove*/
+    public ProgressChannel findChannel(Task<?> task){
+        return channels.get(task);
+    }
+
+    /**for tasks which are run directly instead of being queued, so their channel isn't kept once they finish*/
+    public void removeChannel(Task<?> task){
+        channels.remove(task);
+    }
+
     public void queueTask(Task<?> task){
+        getChannel(task);
         Platform.runLater(() -> {
             task.stateProperty().addListener((observable, oldValue, newValue) -> onTaskStateChanged(task, observable, oldValue, newValue));
             service.submit(task);
         });
     }
-    //TODO BATCH PROCESSING?
+
     public void onTaskStateChanged(Task<?> task, ObservableValue<? extends Worker.State> observable, Worker.State oldValue, Worker.State newValue){
         switch (newValue){
             case READY:
@@ -76,32 +111,74 @@ public class TaskMonitor {
                 break;
             case RUNNING:
                 if(task instanceof PlottingTask){
-                    isPlotting.set(true);
+                    plottingCount++;
                 } else if (task instanceof ExportTask) {
-					isExporting.set(true);
+					exportingCount++;
 				}
-                progressProperty.unbind();
-                progressProperty.bind(task.progressProperty());
-
-                titleProperty.unbind();
-                titleProperty.bind(task.titleProperty());
-
-                messageProperty.unbind();
-                messageProperty.bind(task.messageProperty());
-
-                exceptionProperty.unbind();
-                exceptionProperty.bind(task.exceptionProperty());
+                runningTasks.add(task);
+                isPlotting.set(plottingCount > 0);
+                isExporting.set(exportingCount > 0);
+                exceptionProperty.set(null);
                 break;
             case SUCCEEDED:
             case CANCELLED:
             case FAILED:
-                if(task instanceof PlottingTask){
-                    isPlotting.set(false);
-                } else if (task instanceof ExportTask) {
-					isExporting.set(false);
-				}
+                tick(); //take a final sample, so the last message & statistics are kept
+                if(runningTasks.remove(task)){
+                    if(task instanceof PlottingTask){
+                        plottingCount--;
+                    } else if (task instanceof ExportTask) {
+                        exportingCount--;
+                    }
+                }
+                channels.remove(task);
+                if(newValue == Worker.State.FAILED){
+                    //keep the failure visible until another task starts
+                    exceptionProperty.set(task.getException());
+                }
+                isPlotting.set(plottingCount > 0);
+                isExporting.set(exportingCount > 0);
                 processingCount.setValue(processingCount.getValue() - 1);
                 break;
         }
     }
+
+    /**
+     * samples every running task, called once per pulse, so the fx properties change at most once per frame however often the tasks report.
+     * the progress is the average of all running tasks, the status and statistics are taken from the latest task
+     */
+    public void tick(){
+        if(runningTasks.isEmpty()){
+            return;
+        }
+        double progress = 0;
+        for(Task<?> task : runningTasks){
+            ProgressChannel channel = getChannel(task);
+            progress += Math.max(0, channel.getProgress() != -1 ? channel.getProgress() : task.getProgress());
+        }
+        progressProperty.set(progress / runningTasks.size());
+
+        Task<?> latest = runningTasks.get(runningTasks.size() - 1);
+        ProgressChannel latestChannel = getChannel(latest);
+        String title = latestChannel.getTitle() != null ? latestChannel.getTitle() : latest.getTitle();
+        String message = latestChannel.getMessage() != null ? latestChannel.getMessage() : latest.getMessage();
+        titleProperty.set(title == null ? "" : title);
+        messageProperty.set(message == null ? "" : message);
+        if(latest.getException() != null){
+            exceptionProperty.set(latest.getException());
+        }
+
+        //the statistics are only read from the channel, the drawing itself is never touched from the fx thread while it's being plotted
+        for(int i = runningTasks.size() - 1; i >= 0; i--){
+            Task<?> task = runningTasks.get(i);
+            if(task instanceof PlottingTask){
+                ProgressChannel channel = getChannel(task);
+                if(channel.hasCounts()){
+                    geometryCountProperty.set(channel.getGeometryCount());
+                    vertexCountProperty.set(channel.getVertexCount());
+                }
+                break;
+            }
+        }
+    }
 }
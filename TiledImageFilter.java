@@ -0,0 +1,108 @@
+package drawingbot.image;
+
+import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs a BufferedImageOp across a fork join pool by splitting the image into horizontal strips.
+ * Each strip is filtered with an overlap of the op's kernel radius (0 for point ops) and only the strip's own rows are kept, so the result is identical to filtering the whole image.
+ * Ops are only tiled if they implement {@link ITileable} or their class has been registered with {@link #registerTileable(Class, ToIntFunction)}, anything else is applied to the whole image.
+ */
+public class TiledImageFilter {
+
+    /**
+     * Implemented by the app's image filters which give the same result when applied in strips, the filter must be safe to call from several threads at once.
+     */
+    public interface ITileable {
+
+        /**@return the kernel radius in pixels each strip must be padded by, 0 for point ops which only read the pixel itself, or -1 if the current settings can't be tiled*/
+        int getTileOverlap();
+
+    }
+
+    public static int minPixelsToTile = 1024 * 1024;
+    public static int stripsPerThread = 4;
+
+    /**op classes which can be tiled, mapped to the overlap in pixels each strip needs, 0 for point ops*/
+    private static final Map<Class<?>, ToIntFunction<BufferedImageOp>> TILEABLE_OPS = new LinkedHashMap<>();
+
+    static {
+        registerTileable(RescaleOp.class, op -> 0);
+        registerTileable(LookupOp.class, op -> 0);
+        //ColorConvertOp isn't registered, it caches its colour transforms in the op so it can't be used from several threads at once
+        registerTileable(ConvolveOp.class, op -> {
+            Kernel kernel = ((ConvolveOp) op).getKernel();
+            return Math.max(Math.max(kernel.getXOrigin(), kernel.getWidth() - 1 - kernel.getXOrigin()), Math.max(kernel.getYOrigin(), kernel.getHeight() - 1 - kernel.getYOrigin()));
+        });
+    }
+
+    /**registers an op class (and its subclasses) which can be tiled, the overlap function returns the kernel radius in pixels*/
+    public static <O extends BufferedImageOp> void registerTileable(Class<O> opClass, ToIntFunction<BufferedImageOp> overlap){
+        TILEABLE_OPS.put(opClass, overlap);
+    }
+
+    /**@return the strip overlap the op needs, or -1 if it can't be tiled*/
+    public static int getOverlap(BufferedImageOp op){
+        if(op instanceof ITileable){
+            return ((ITileable) op).getTileOverlap();
+        }
+        for(Map.Entry<Class<?>, ToIntFunction<BufferedImageOp>> entry : TILEABLE_OPS.entrySet()){
+            if(entry.getKey().isInstance(op)){
+                return entry.getValue().applyAsInt(op);
+            }
+        }
+        return -1;
+    }
+
+    public static BufferedImage filter(ForkJoinPool pool, BufferedImageOp op, BufferedImage src){
+        int overlap = getOverlap(op);
+        int width = src.getWidth(), height = src.getHeight();
+        if(overlap < 0 || (long)width * height < minPixelsToTile || src.getType() == BufferedImage.TYPE_CUSTOM){
+            return op.filter(src, null);
+        }
+
+        BufferedImage dst = op.createCompatibleDestImage(src, null);
+        int strips = Math.min(height, pool.getParallelism() * stripsPerThread);
+        int stripHeight = (height + strips - 1) / strips;
+
+        List<ForkJoinTask<?>> futures = new ArrayList<>();
+        for(int y = 0; y < height; y += stripHeight){
+            int stripY = y;
+            int stripRows = Math.min(stripHeight, height - y);
+            futures.add(pool.submit(() -> filterStrip(op, src, dst, stripY, stripRows, overlap)));
+        }
+        try{
+            for(ForkJoinTask<?> future : futures){
+                future.join();
+            }
+        }catch (ImagingOpException e){
+            futures.forEach(future -> future.cancel(false));
+            return op.filter(src, null); //the op can't filter this image type in strips, e.g. native convolutions of some byte layouts
+        }
+        return dst;
+    }
+
+    private static void filterStrip(BufferedImageOp op, BufferedImage src, BufferedImage dst, int stripY, int stripRows, int overlap){
+        int width = src.getWidth();
+        //filter the strip with the rows either side, then only keep the strip's own rows
+        int paddedY = Math.max(0, stripY - overlap);
+        int paddedEnd = Math.min(src.getHeight(), stripY + stripRows + overlap);
+        BufferedImage padded = copyRows(src, paddedY, paddedEnd - paddedY);
+        BufferedImage filtered = op.filter(padded, op.createCompatibleDestImage(padded, dst.getColorModel()));
+        dst.getRaster().setDataElements(0, stripY, filtered.getRaster().createChild(0, stripY - paddedY, width, stripRows, 0, 0, null));
+    }
+
+    /**copies the rows into a new image with the same colour model, some ops can't filter sub images of interleaved byte rasters*/
+    private static BufferedImage copyRows(BufferedImage src, int y, int rows){
+        ColorModel colorModel = src.getColorModel();
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(src.getWidth(), rows);
+        raster.setDataElements(0, 0, src.getRaster().createChild(0, y, src.getWidth(), rows, 0, 0, null));
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+}
@@ -0,0 +1,373 @@
+package drawingbot.geom;
+
+import java.util.Arrays;
+
+/**
+ * Shortens the pen up travel of an already sorted set of polylines with 2-opt and Or-opt moves, until no move improves it or the time limit is reached.
+ * 2-opt reverses a run of polylines (drawing each of them backwards), Or-opt moves a run of up to 3 polylines elsewhere in the tour, in either direction.
+ * Moves are only tried between endpoints which are near each other, using the k nearest endpoints of each endpoint, and polylines are revisited when their neighbours change.
+ * The tour is open, it starts at the origin and the pen stays wherever the last polyline finishes.
+ */
+public class TravelOptimiser {
+
+    public static int neighbourCount = 8;
+    public static int maxMoveLength = 50000; //the longest run of the tour a single move may shift or reverse, keeps each move cheap on large drawings
+    public static int maxOrOptLength = 3;
+
+    private static final int ORIGIN = -1, NONE = -2;
+    private static final double EPSILON = 1e-6;
+
+    private final int count;
+    private final float[] x, y; //endpoint e belongs to polyline e / 2, even is the start, odd the end
+    private final float originX, originY;
+    private final int[] neighbours;
+
+    public final int[] order;
+    public final boolean[] reversed;
+    private final int[] position;
+
+    private final int[] queue;
+    private final boolean[] queued;
+    private int queueHead, queueSize;
+
+    private TravelOptimiser(PolylineSet set, float originX, float originY){
+        this.count = set.size;
+        this.x = new float[count * 2];
+        this.y = new float[count * 2];
+        for(int i = 0; i < count; i++){
+            x[i * 2] = set.getStartX(i);
+            y[i * 2] = set.getStartY(i);
+            x[i * 2 + 1] = set.getEndX(i);
+            y[i * 2 + 1] = set.getEndY(i);
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.order = new int[count];
+        this.reversed = new boolean[count];
+        this.position = new int[count];
+        this.queue = new int[count];
+        this.queued = new boolean[count];
+        for(int i = 0; i < count; i++){
+            order[i] = i;
+            position[i] = i;
+            push(i);
+        }
+        this.neighbours = findNeighbours();
+    }
+
+    /**
+     * @param timeLimit the wall clock budget in milliseconds, the best tour found so far is returned when it runs out
+     * @return a new set with the polylines in the improved order, never with more travel than the input order
+     */
+    public static PolylineSet optimise(PolylineSet set, float originX, float originY, long timeLimit){
+        if(set.size < 3 || timeLimit <= 0){
+            return set;
+        }
+        TravelOptimiser optimiser = new TravelOptimiser(set, originX, originY);
+        optimiser.run(System.nanoTime() + timeLimit * 1000000L);
+        return set.reorder(optimiser.order, optimiser.reversed);
+    }
+
+    private void run(long deadline){
+        int checks = 0;
+        while(queueSize > 0){
+            if((++checks & 255) == 0 && System.nanoTime() > deadline){
+                return;
+            }
+            int polyline = pop();
+            int p = position[polyline];
+            //try the edges into and out of the polyline, then moving runs starting at it
+            if(!improve2Opt(p - 1) && !improve2Opt(p)){
+                improveOrOpt(p);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**tries to replace the edge from position a to a + 1 with a 2-opt move, returns true if the tour changed*/
+    private boolean improve2Opt(int a){
+        if(a < -1 || a >= count - 1){
+            return false;
+        }
+        int outA = out(a), inA = in(a + 1);
+        double edge = distance(outA, inA);
+        //new edge from out(a) to out(b)
+        if(outA != ORIGIN){
+            for(int n = outA * neighbourCount; n < (outA + 1) * neighbourCount && neighbours[n] != -1; n++){
+                int q = neighbours[n];
+                double gain = edge - distance(outA, q);
+                if(gain <= EPSILON){
+                    break;
+                }
+                int b = position[q >> 1];
+                if(out(b) == q && b != a && tryReverse(Math.min(a, b), Math.max(a, b))){
+                    return true;
+                }
+            }
+        }
+        //new edge from in(a + 1) to in(b + 1)
+        for(int n = inA * neighbourCount; n < (inA + 1) * neighbourCount && neighbours[n] != -1; n++){
+            int q = neighbours[n];
+            double gain = edge - distance(inA, q);
+            if(gain <= EPSILON){
+                break;
+            }
+            int b = position[q >> 1] - 1;
+            if(in(b + 1) == q && b != a && tryReverse(Math.min(a, b), Math.max(a, b))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**reverses positions a + 1 to b if it shortens the tour*/
+    private boolean tryReverse(int a, int b){
+        if(b - a > maxMoveLength){
+            return false;
+        }
+        double before = distance(out(a), in(a + 1)) + distance(out(b), in(b + 1));
+        double after = distance(out(a), out(b)) + distance(in(a + 1), in(b + 1));
+        if(after - before >= -EPSILON){
+            return false;
+        }
+        for(int i = a + 1, j = b; i <= j; i++, j--){
+            int polyline = order[i];
+            boolean reverse = reversed[i];
+            order[i] = order[j];
+            reversed[i] = !reversed[j];
+            order[j] = polyline;
+            reversed[j] = !reverse;
+            position[order[i]] = i;
+            position[order[j]] = j;
+        }
+        pushAround(a);
+        pushAround(b);
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**tries moving the runs of 1 to maxOrOptLength polylines starting at position s, returns true if the tour changed*/
+    private boolean improveOrOpt(int s){
+        for(int length = 1; length <= maxOrOptLength && s + length <= count; length++){
+            int e = s + length - 1;
+            int inS = in(s), outE = out(e);
+            double removeGain = distance(out(s - 1), inS) + distance(outE, in(e + 1)) - distance(out(s - 1), in(e + 1));
+            if(removeGain <= EPSILON){
+                continue;
+            }
+            //the run's start next to out(c) or in(c + 1)
+            for(int n = inS * neighbourCount; n < (inS + 1) * neighbourCount && neighbours[n] != -1; n++){
+                int q = neighbours[n];
+                if(distance(inS, q) >= removeGain){
+                    break;
+                }
+                int p = position[q >> 1];
+                if(out(p) == q && tryMove(s, e, p, false)){
+                    return true;
+                }
+                if(in(p) == q && tryMove(s, e, p - 1, true)){
+                    return true;
+                }
+            }
+            //the run's end next to in(c + 1) or out(c)
+            for(int n = outE * neighbourCount; n < (outE + 1) * neighbourCount && neighbours[n] != -1; n++){
+                int q = neighbours[n];
+                if(distance(outE, q) >= removeGain){
+                    break;
+                }
+                int p = position[q >> 1];
+                if(in(p) == q && tryMove(s, e, p - 1, false)){
+                    return true;
+                }
+                if(out(p) == q && tryMove(s, e, p, true)){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**moves positions s to e in between positions c and c + 1, reversing the run if reverse, if it shortens the tour*/
+    private boolean tryMove(int s, int e, int c, boolean reverse){
+        if(c >= s - 1 && c <= e){
+            return false;
+        }
+        if(Math.abs(c - s) > maxMoveLength){
+            return false;
+        }
+        double before = distance(out(s - 1), in(s)) + distance(out(e), in(e + 1)) + distance(out(c), in(c + 1));
+        double after = distance(out(s - 1), in(e + 1));
+        if(reverse){
+            after += distance(out(c), out(e)) + distance(in(s), in(c + 1));
+        }else{
+            after += distance(out(c), in(s)) + distance(out(e), in(c + 1));
+        }
+        if(after - before >= -EPSILON){
+            return false;
+        }
+        int length = e - s + 1;
+        int[] run = Arrays.copyOfRange(order, s, e + 1);
+        boolean[] runReversed = Arrays.copyOfRange(reversed, s, e + 1);
+        int target;
+        if(c > e){
+            System.arraycopy(order, e + 1, order, s, c - e);
+            System.arraycopy(reversed, e + 1, reversed, s, c - e);
+            target = c - length + 1;
+            updatePositions(s, target);
+        }else{
+            System.arraycopy(order, c + 1, order, c + 1 + length, s - c - 1);
+            System.arraycopy(reversed, c + 1, reversed, c + 1 + length, s - c - 1);
+            target = c + 1;
+            updatePositions(target + length, e + 1);
+        }
+        for(int i = 0; i < length; i++){
+            int from = reverse ? length - 1 - i : i;
+            order[target + i] = run[from];
+            reversed[target + i] = reverse != runReversed[from];
+        }
+        updatePositions(target, target + length);
+        pushAround(s - 1);
+        pushAround(Math.min(s, count - 1));
+        pushAround(target - 1);
+        pushAround(target + length - 1);
+        return true;
+    }
+
+    private void updatePositions(int from, int to){
+        for(int i = from; i < to; i++){
+            position[order[i]] = i;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**the endpoint the pen leaves position p from, the origin before the first polyline*/
+    private int out(int p){
+        return p < 0 ? ORIGIN : order[p] * 2 + (reversed[p] ? 0 : 1);
+    }
+
+    /**the endpoint the pen enters position p at, none after the last polyline*/
+    private int in(int p){
+        return p >= count ? NONE : order[p] * 2 + (reversed[p] ? 1 : 0);
+    }
+
+    private double distance(int a, int b){
+        if(a == NONE || b == NONE){
+            return 0; //the pen doesn't travel after the last polyline
+        }
+        double ax = a == ORIGIN ? originX : x[a], ay = a == ORIGIN ? originY : y[a];
+        double bx = b == ORIGIN ? originX : x[b], by = b == ORIGIN ? originY : y[b];
+        return Math.hypot(bx - ax, by - ay);
+    }
+
+    /**queues the polylines either side of the edge from position p to p + 1*/
+    private void pushAround(int p){
+        if(p >= 0 && p < count){
+            push(order[p]);
+        }
+        if(p + 1 >= 0 && p + 1 < count){
+            push(order[p + 1]);
+        }
+    }
+
+    private void push(int polyline){
+        if(!queued[polyline]){
+            queued[polyline] = true;
+            queue[(queueHead + queueSize) % count] = polyline;
+            queueSize++;
+        }
+    }
+
+    private int pop(){
+        int polyline = queue[queueHead];
+        queueHead = (queueHead + 1) % count;
+        queueSize--;
+        queued[polyline] = false;
+        return polyline;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**the nearest endpoints of each endpoint, nearest first, excluding the other end of its own polyline, found with a uniform grid*/
+    private int[] findNeighbours(){
+        int endpoints = count * 2;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for(int e = 0; e < endpoints; e++){
+            minX = Math.min(minX, x[e]);
+            minY = Math.min(minY, y[e]);
+            maxX = Math.max(maxX, x[e]);
+            maxY = Math.max(maxY, y[e]);
+        }
+        float width = Math.max(maxX - minX, 1e-6F), height = Math.max(maxY - minY, 1e-6F);
+        float cellSize = (float)Math.max(Math.sqrt(width * height / Math.max(1, endpoints / 2)), Math.max(width, height) / 4096F);
+        int gridWidth = (int)(width / cellSize) + 1, gridHeight = (int)(height / cellSize) + 1;
+
+        int[] cellStart = new int[gridWidth * gridHeight + 1];
+        int[] cellOf = new int[endpoints];
+        for(int e = 0; e < endpoints; e++){
+            int cx = Math.min(gridWidth - 1, (int)((x[e] - minX) / cellSize)), cy = Math.min(gridHeight - 1, (int)((y[e] - minY) / cellSize));
+            cellOf[e] = cy * gridWidth + cx;
+            cellStart[cellOf[e] + 1]++;
+        }
+        for(int c = 0; c < gridWidth * gridHeight; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] cellItems = new int[endpoints];
+        int[] fill = Arrays.copyOf(cellStart, gridWidth * gridHeight);
+        for(int e = 0; e < endpoints; e++){
+            cellItems[fill[cellOf[e]]++] = e;
+        }
+
+        int k = neighbourCount;
+        int[] result = new int[endpoints * k];
+        Arrays.fill(result, -1);
+        double[] best = new double[k];
+        for(int e = 0; e < endpoints; e++){
+            int found = 0;
+            int cx = cellOf[e] % gridWidth, cy = cellOf[e] / gridWidth;
+            int maxRing = Math.max(gridWidth, gridHeight);
+            for(int ring = 0; ring <= maxRing; ring++){
+                for(int gy = cy - ring; gy <= cy + ring; gy++){
+                    if(gy < 0 || gy >= gridHeight){
+                        continue;
+                    }
+                    int step = gy == cy - ring || gy == cy + ring ? 1 : Math.max(1, ring * 2);
+                    for(int gx = cx - ring; gx <= cx + ring; gx += step){
+                        if(gx < 0 || gx >= gridWidth){
+                            continue;
+                        }
+                        int cell = gy * gridWidth + gx;
+                        for(int c = cellStart[cell]; c < cellStart[cell + 1]; c++){
+                            int f = cellItems[c];
+                            if(f >> 1 == e >> 1){
+                                continue;
+                            }
+                            double dx = x[f] - x[e], dy = y[f] - y[e];
+                            double d = dx * dx + dy * dy;
+                            if(found == k && d >= best[k - 1]){
+                                continue;
+                            }
+                            //insertion into the sorted list of the k best
+                            int i = found == k ? k - 1 : found++;
+                            while(i > 0 && best[i - 1] > d){
+                                best[i] = best[i - 1];
+                                result[e * k + i] = result[e * k + i - 1];
+                                i--;
+                            }
+                            best[i] = d;
+                            result[e * k + i] = f;
+                        }
+                    }
+                }
+                //every cell in the next ring is at least ring * cellSize away
+                double reach = ring * (double)cellSize;
+                if(found == k && best[k - 1] <= reach * reach){
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package drawingbot.image.blend;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Composite;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and vector compositing paths for each blend mode the vector engine supports, on one 2048x2048 layer.
+ * This is kept in the separate, opt-in jmh source set, build it with jmh-core and its annotation processor alongside the vector source set, see {@link VectorBlendCompositor}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 8, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BlendCompositorBenchmark {
+
+    public static final int SIZE = 2048;
+
+    @Param({"NORMAL", "ADD", "AVERAGE", "DARKEN", "DIFFERENCE", "EXCLUSION", "HARD_LIGHT", "LIGHTEN", "MULTIPLY", "NEGATION", "OVERLAY", "SCREEN", "SOFT_LIGHT", "SUBTRACT"})
+    public EnumBlendMode blendMode;
+
+    private Composite composite;
+    private int[] src, background, dst;
+
+    @Setup(Level.Trial)
+    public void setupTrial(){
+        if(BlendCompositor.VECTOR_ENGINE == null){
+            throw new IllegalStateException("The vector engine isn't available, build the vector source set and run with --add-modules jdk.incubator.vector");
+        }
+        composite = BlendCompositor.getComposite(blendMode);
+        Random random = new Random(0);
+        src = new int[SIZE * SIZE];
+        background = new int[SIZE * SIZE];
+        for(int i = 0; i < src.length; i++){
+            //a pen layer, mostly empty with some antialiased edges
+            int alpha = random.nextInt(4) == 0 ? random.nextInt(256) : 0;
+            src[i] = alpha << 24 | (random.nextInt() & 0xFFFFFF);
+            background[i] = random.nextInt() | 0xFF000000;
+        }
+        dst = new int[SIZE * SIZE];
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation(){
+        System.arraycopy(background, 0, dst, 0, dst.length);
+    }
+
+    @Benchmark
+    public int[] scalar(){
+        BlendCompositor.composite(composite, src, dst, 0, dst.length);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] vector(){
+        BlendCompositor.VECTOR_ENGINE.composite(blendMode, src, dst, 0, dst.length);
+        return dst;
+    }
+}
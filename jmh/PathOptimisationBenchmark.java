@@ -0,0 +1,74 @@
+package drawingbot.geom;
+
+import drawingbot.geom.basic.GPath;
+import drawingbot.geom.basic.IGeometry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the simplify stage of the {@link PathOptimisationPipeline} over a 10M vertex drawing, serially and on a fork join pool.
+ * This is kept in the separate, opt-in jmh source set, build it with jmh-core and its annotation processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class PathOptimisationBenchmark {
+
+    @Param({"100000"})
+    public int polylines;
+
+    @Param({"100"})
+    public int pointsPerPolyline;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private List<IGeometry> geometries;
+    private PathOptimisationPipeline pipeline;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Random random = new Random(0);
+        geometries = new ArrayList<>(polylines);
+        for(int i = 0; i < polylines; i++){
+            //a noisy walk, so roughly half of the points are within the tolerance
+            GPath path = new GPath();
+            float x = random.nextFloat() * 1000, y = random.nextFloat() * 1000;
+            float angle = random.nextFloat() * 6.28F;
+            path.moveTo(x, y);
+            for(int p = 1; p < pointsPerPolyline; p++){
+                angle += (random.nextFloat() - 0.5F) * 0.5F;
+                x += Math.cos(angle) + (random.nextFloat() - 0.5F) * 0.4F;
+                y += Math.sin(angle) + (random.nextFloat() - 0.5F) * 0.4F;
+                path.lineTo(x, y);
+            }
+            path.setPenIndex(i % 4);
+            geometries.add(path);
+        }
+        pipeline = new PathOptimisationPipeline();
+        pipeline.simplify = true;
+        pipeline.simplifyTolerance = 0.2F;
+        pool = parallel ? new ForkJoinPool() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        if(pool != null){
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public PolylineSet simplify(){
+        return pipeline.run(geometries, pool);
+    }
+}
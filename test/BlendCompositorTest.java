@@ -0,0 +1,151 @@
+package drawingbot.image.blend;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.AlphaComposite;
+import java.awt.CompositeContext;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlendCompositorTest {
+
+    private static final int[] ARGB_MASKS = {0xFF0000, 0xFF00, 0xFF, 0xFF000000};
+
+    @Test
+    public void opaquePixelsMatchBlendComposite(){
+        Random random = new Random(13);
+        int length = 1000;
+        for(EnumBlendMode blendMode : EnumBlendMode.values()){
+            if(!BlendCompositor.isSupported(blendMode)){
+                continue;
+            }
+            int[] src = randomPixels(random, length, true);
+            int[] dst = randomPixels(random, length, true);
+            int[] expected = composeDirectly((BlendComposite) BlendCompositor.getComposite(blendMode), src, dst);
+            BlendCompositor.composite(blendMode, src, dst, 0, length);
+            assertPixelsEqual(expected, dst, 1, blendMode.name());
+        }
+    }
+
+    @Test
+    public void scalarAndVectorEnginesMatch(){
+        if(BlendCompositor.VECTOR_ENGINE == null){
+            return; //the vector source set wasn't built, or the module isn't available
+        }
+        Random random = new Random(15);
+        int length = 1003; //not a multiple of any vector length, so the tail is covered
+        for(EnumBlendMode blendMode : EnumBlendMode.values()){
+            if(!BlendCompositor.isSupported(blendMode)){
+                continue;
+            }
+            int[] src = randomPixels(random, length, false);
+            int[] dst = randomPixels(random, length, true);
+            int[] scalar = dst.clone();
+            BlendCompositor.composite(BlendCompositor.getComposite(blendMode), src, scalar, 0, length);
+            if(BlendCompositor.VECTOR_ENGINE.composite(blendMode, src, dst, 0, length)){
+                assertPixelsEqual(scalar, dst, 1, blendMode.name());
+            }
+        }
+    }
+
+    @Test
+    public void transparentPixelsLeaveTheDestination(){
+        int[] src = {0x00000000, 0x00FF0000};
+        int[] dst = {0xFF336699, 0xFF336699};
+        BlendCompositor.composite(EnumBlendMode.MULTIPLY, src, dst, 0, 2);
+        assertArrayEquals(new int[]{0xFF336699, 0xFF336699}, dst);
+    }
+
+    @Test
+    public void offsetOnlyTouchesTheRange(){
+        int[] src = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF000000};
+        int[] dst = {0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF};
+        BlendCompositor.composite(EnumBlendMode.MULTIPLY, src, dst, 1, 2);
+        assertEquals(0xFFFFFFFF, dst[0]);
+        assertEquals(0xFFFFFFFF, dst[3]);
+        assertEquals(0xFF000000, dst[1]);
+        assertEquals(0xFF000000, dst[2]);
+    }
+
+    @Test
+    public void multiplyAndScreenCommute(){
+        Random random = new Random(23);
+        int length = 1000;
+        for(EnumBlendMode blendMode : new EnumBlendMode[]{EnumBlendMode.MULTIPLY, EnumBlendMode.SCREEN}){
+            assertTrue(BlendCompositor.isOrderIndependent(blendMode));
+            //antialiased edges, so the alpha mixing is covered too
+            int[] a = randomPixels(random, length, false);
+            int[] b = randomPixels(random, length, false);
+            int[] background = randomPixels(random, length, true);
+            assertPixelsEqual(compositeInOrder(blendMode, background, a, b), compositeInOrder(blendMode, background, b, a), 2, blendMode.name());
+        }
+    }
+
+    @Test
+    public void darkenDoesntCommuteWithPartialCoverage(){
+        //why darken isn't order independent, a half covered black pixel & an opaque grey
+        int[] black = {0x80000000};
+        int[] grey = {0xFF666666};
+        int[] white = {0xFFFFFFFF};
+        int first = compositeInOrder(EnumBlendMode.DARKEN, white, black, grey)[0];
+        int second = compositeInOrder(EnumBlendMode.DARKEN, white, grey, black)[0];
+        assertTrue(Math.abs((first & 0xFF) - (second & 0xFF)) > 2);
+        assertFalse(BlendCompositor.isOrderIndependent(EnumBlendMode.DARKEN));
+        assertFalse(BlendCompositor.isOrderIndependent(EnumBlendMode.LIGHTEN));
+        assertFalse(BlendCompositor.isOrderIndependent(EnumBlendMode.ADD));
+        assertFalse(BlendCompositor.isOrderIndependent(EnumBlendMode.NORMAL));
+    }
+
+    @Test
+    public void unsupportedModesFallBackToNormal(){
+        for(EnumBlendMode blendMode : EnumBlendMode.values()){
+            assertNotNull(BlendCompositor.getComposite(blendMode));
+            if(!BlendCompositor.isSupported(blendMode)){
+                assertSame(AlphaComposite.SrcOver, BlendCompositor.getComposite(blendMode));
+            }
+        }
+    }
+
+    private static int[] compositeInOrder(EnumBlendMode blendMode, int[] background, int[] first, int[] second){
+        int[] dst = background.clone();
+        BlendCompositor.composite(blendMode, first, dst, 0, dst.length);
+        BlendCompositor.composite(blendMode, second, dst, 0, dst.length);
+        return dst;
+    }
+
+    private static int[] composeDirectly(BlendComposite composite, int[] src, int[] dst){
+        int[] result = new int[src.length];
+        CompositeContext context = composite.createContext(ColorModel.getRGBdefault(), ColorModel.getRGBdefault(), null);
+        context.compose(wrap(src), wrap(dst.clone()), wrap(result));
+        context.dispose();
+        return result;
+    }
+
+    private static WritableRaster wrap(int[] pixels){
+        return Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), pixels.length, 1, pixels.length, ARGB_MASKS, null);
+    }
+
+    private static int[] randomPixels(Random random, int length, boolean opaque){
+        int[] pixels = new int[length];
+        for(int i = 0; i < length; i++){
+            pixels[i] = opaque ? random.nextInt() | 0xFF000000 : random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static void assertPixelsEqual(int[] expected, int[] actual, int tolerance, String message){
+        for(int i = 0; i < expected.length; i++){
+            for(int shift = 0; shift < 32; shift += 8){
+                int e = (expected[i] >>> shift) & 0xFF, a = (actual[i] >>> shift) & 0xFF;
+                if(Math.abs(e - a) > tolerance){
+                    fail(message + ": pixel " + i + " expected " + Integer.toHexString(expected[i]) + " but was " + Integer.toHexString(actual[i]));
+                }
+            }
+        }
+    }
+}
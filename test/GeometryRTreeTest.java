@@ -0,0 +1,80 @@
+package drawingbot.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeometryRTreeTest {
+
+    private static final int NODE = GeometryRTree.NODE_CAPACITY;
+
+    @Test
+    public void emptyTreeFindsNothing(){
+        GeometryRTree tree = new GeometryRTree(new float[0], new float[0], new float[0], new float[0], 0);
+        assertEquals(0, tree.query(-1000, -1000, 1000, 1000, Integer.MAX_VALUE).length);
+    }
+
+    @Test
+    public void singleBox(){
+        GeometryRTree tree = new GeometryRTree(new float[]{10}, new float[]{10}, new float[]{20}, new float[]{20}, 1);
+        assertArrayEquals(new int[]{0}, tree.query(15, 15, 30, 30, 1));
+        assertArrayEquals(new int[]{0}, tree.query(20, 20, 30, 30, 1), "touching edges intersect");
+        assertArrayEquals(new int[0], tree.query(21, 21, 30, 30, 1));
+    }
+
+    @Test
+    public void queriesMatchBruteForce(){
+        //sizes either side of a node & a whole level, so partly filled nodes & slices are covered
+        for(int size : new int[]{2, NODE, NODE + 1, NODE * NODE, NODE * NODE + 7, 5000}){
+            Random random = new Random(size);
+            float[] minX = new float[size], minY = new float[size], maxX = new float[size], maxY = new float[size];
+            for(int i = 0; i < size; i++){
+                minX[i] = random.nextFloat() * 2000 - 1000;
+                minY[i] = random.nextFloat() * 2000 - 1000;
+                maxX[i] = minX[i] + random.nextFloat() * 50;
+                maxY[i] = minY[i] + random.nextFloat() * 50;
+            }
+            GeometryRTree tree = new GeometryRTree(minX, minY, maxX, maxY, size);
+            assertEquals(size, tree.size());
+            for(int q = 0; q < 200; q++){
+                float x0 = random.nextFloat() * 2200 - 1100, y0 = random.nextFloat() * 2200 - 1100;
+                float x1 = x0 + random.nextFloat() * 400, y1 = y0 + random.nextFloat() * 400;
+                int maxIndex = q % 4 == 0 ? random.nextInt(size + 1) : size;
+                int[] expected = bruteForce(minX, minY, maxX, maxY, size, x0, y0, x1, y1, maxIndex);
+                assertArrayEquals(expected, tree.query(x0, y0, x1, y1, maxIndex), "size " + size + ", query " + q);
+            }
+        }
+    }
+
+    @Test
+    public void resultsAreInPlottedOrder(){
+        int size = 1000;
+        float[] minX = new float[size], minY = new float[size], maxX = new float[size], maxY = new float[size];
+        for(int i = 0; i < size; i++){
+            //later geometries further left, so packing reorders them
+            minX[i] = size - i;
+            maxX[i] = minX[i] + 1;
+            minY[i] = i % 10;
+            maxY[i] = minY[i] + 1;
+        }
+        int[] result = new GeometryRTree(minX, minY, maxX, maxY, size).query(0, 0, size + 1, 11, size);
+        assertEquals(size, result.length);
+        for(int i = 1; i < result.length; i++){
+            assertTrue(result[i - 1] < result[i]);
+        }
+    }
+
+    private static int[] bruteForce(float[] minX, float[] minY, float[] maxX, float[] maxY, int size, float x0, float y0, float x1, float y1, int maxIndex){
+        int[] result = new int[size];
+        int count = 0;
+        for(int i = 0; i < Math.min(size, maxIndex); i++){
+            if(!(maxX[i] < x0 || minX[i] > x1 || maxY[i] < y0 || minY[i] > y1)){
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,68 @@
+package drawingbot.plotting;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlottingResultCacheTest {
+
+    private final PlottingResultCache cache = new PlottingResultCache(task -> {});
+
+    @Test
+    public void imageHashDependsOnPixelsNotInstance(){
+        BufferedImage a = createImage(16, 8, 0);
+        BufferedImage b = createImage(16, 8, 0);
+        assertEquals(cache.getImageHash(a), cache.getImageHash(b));
+    }
+
+    @Test
+    public void imageHashChangesWithOnePixel(){
+        BufferedImage a = createImage(16, 8, 0);
+        BufferedImage b = createImage(16, 8, 0);
+        b.setRGB(15, 7, b.getRGB(15, 7) ^ 1);
+        assertNotEquals(cache.getImageHash(a), cache.getImageHash(b));
+    }
+
+    @Test
+    public void imageHashIncludesDimensions(){
+        //the same pixels in a different shape
+        BufferedImage wide = createImage(8, 2, 0);
+        BufferedImage tall = new BufferedImage(2, 8, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = wide.getRGB(0, 0, 8, 2, null, 0, 8);
+        tall.setRGB(0, 0, 2, 8, pixels, 0, 2);
+        assertNotEquals(cache.getImageHash(wide), cache.getImageHash(tall));
+    }
+
+    @Test
+    public void imageHashIsRemembered(){
+        BufferedImage image = createImage(16, 8, 0);
+        String hash = cache.getImageHash(image);
+        image.setRGB(0, 0, 0); //changing the pixels of an open image isn't expected, the hash is kept for the instance
+        assertSame(hash, cache.getImageHash(image));
+    }
+
+    @Test
+    public void keyDependsOnImageAndSettings(){
+        String key = cache.createKey("image", "settings");
+        assertEquals(key, cache.createKey("image", "settings"));
+        assertNotEquals(key, cache.createKey("image2", "settings"));
+        assertNotEquals(key, cache.createKey("image", "settings2"));
+    }
+
+    @Test
+    public void keyValuesCantRunTogether(){
+        assertNotEquals(cache.createKey("ab", "c"), cache.createKey("a", "bc"));
+    }
+
+    private static BufferedImage createImage(int width, int height, int seed){
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                image.setRGB(x, y, 0xFF000000 | ((x * 31 + y * 17 + seed) * 0x010203));
+            }
+        }
+        return image;
+    }
+}
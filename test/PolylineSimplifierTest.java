@@ -0,0 +1,140 @@
+package drawingbot.geom;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolylineSimplifierTest {
+
+    @Test
+    public void collinearPointsAreRemoved(){
+        PolylineSet set = new PolylineSet();
+        set.add(new float[]{0, 0, 1, 1, 2, 2, 3, 3, 10, 10}, 5, 2);
+        PolylineSet result = PolylineSimplifier.simplify(set, 0.01F, null);
+        assertEquals(1, result.size);
+        assertArrayEquals(new float[]{0, 0, 10, 10}, points(result, 0));
+        assertEquals(2, result.pens[0]);
+    }
+
+    @Test
+    public void pointsBeyondTheToleranceAreKept(){
+        PolylineSet set = new PolylineSet();
+        //the middle point is 1 away from the line
+        set.add(new float[]{0, 0, 5, 1, 10, 0}, 3, 0);
+        assertEquals(3, PolylineSimplifier.simplify(set, 0.99F, null).pointCount);
+        assertEquals(2, PolylineSimplifier.simplify(set, 1.01F, null).pointCount);
+    }
+
+    @Test
+    public void closedPolylinesKeepTheirShape(){
+        //the first & last points are the same, distances are measured from the point instead of a line
+        PolylineSet set = new PolylineSet();
+        set.add(new float[]{0, 0, 10, 0, 10, 10, 0, 10, 0, 0}, 5, 0);
+        PolylineSet result = PolylineSimplifier.simplify(set, 0.5F, null);
+        assertArrayEquals(new float[]{0, 0, 10, 0, 10, 10, 0, 10, 0, 0}, points(result, 0));
+    }
+
+    @Test
+    public void matchesRecursiveDouglasPeucker(){
+        Random random = new Random(23);
+        PolylineSet set = randomWalks(random, 200, 2, 300);
+        PolylineSet result = PolylineSimplifier.simplify(set, 0.3F, null);
+        assertEquals(set.size, result.size);
+        for(int i = 0; i < set.size; i++){
+            boolean[] keep = new boolean[set.pointCount];
+            keep[set.offsets[i]] = keep[set.offsets[i + 1] - 1] = true;
+            reference(set.coords, set.offsets[i], set.offsets[i + 1] - 1, 0.3, keep);
+            int kept = 0;
+            for(int p = set.offsets[i]; p < set.offsets[i + 1]; p++){
+                if(keep[p]){
+                    assertEquals(set.coords[p * 2], result.coords[(result.offsets[i] + kept) * 2], "polyline " + i);
+                    assertEquals(set.coords[p * 2 + 1], result.coords[(result.offsets[i] + kept) * 2 + 1], "polyline " + i);
+                    kept++;
+                }
+            }
+            assertEquals(kept, result.getPointCount(i), "polyline " + i);
+            assertEquals(set.pens[i], result.pens[i]);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial(){
+        int minPointsPerChunk = PolylineSimplifier.minPointsPerChunk;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try{
+            PolylineSimplifier.minPointsPerChunk = 64; //so the set is split into many chunks
+            PolylineSet set = randomWalks(new Random(7), 2000, 2, 200);
+            PolylineSet serial = PolylineSimplifier.simplify(set, 0.3F, null);
+            PolylineSet parallel = PolylineSimplifier.simplify(set, 0.3F, pool);
+            assertEquals(serial.size, parallel.size);
+            assertEquals(serial.pointCount, parallel.pointCount);
+            for(int i = 0; i < serial.size; i++){
+                assertArrayEquals(points(serial, i), points(parallel, i), "polyline " + i);
+                assertEquals(serial.pens[i], parallel.pens[i]);
+            }
+        }finally{
+            PolylineSimplifier.minPointsPerChunk = minPointsPerChunk;
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void longZigZagGrowsTheStack(){
+        //every point is kept, which needs a deeper stack than the initial scratch buffer
+        int count = 20000;
+        float[] points = new float[count * 2];
+        for(int p = 0; p < count; p++){
+            points[p * 2] = p;
+            points[p * 2 + 1] = (p % 2) * 10 + p * 0.001F;
+        }
+        PolylineSet set = new PolylineSet();
+        set.add(points, count, 0);
+        assertEquals(count, PolylineSimplifier.simplify(set, 1, null).pointCount);
+    }
+
+    private static PolylineSet randomWalks(Random random, int polylines, int minPoints, int maxPoints){
+        PolylineSet set = new PolylineSet();
+        for(int i = 0; i < polylines; i++){
+            int count = minPoints + random.nextInt(maxPoints - minPoints + 1);
+            float x = random.nextFloat() * 100, y = random.nextFloat() * 100;
+            for(int p = 0; p < count; p++){
+                x += random.nextFloat() - 0.3F;
+                y += random.nextFloat() - 0.5F;
+                set.addPoint(x, y);
+            }
+            set.endPolyline(i % 3);
+        }
+        return set;
+    }
+
+    /**the textbook recursion, keeps the furthest point if it's beyond the tolerance*/
+    private static void reference(float[] coords, int first, int last, double tolerance, boolean[] keep){
+        double ax = coords[first * 2], ay = coords[first * 2 + 1];
+        double dx = coords[last * 2] - ax, dy = coords[last * 2 + 1] - ay;
+        double length = Math.hypot(dx, dy);
+        int furthest = -1;
+        double furthestDistance = tolerance;
+        for(int p = first + 1; p < last; p++){
+            double px = coords[p * 2] - ax, py = coords[p * 2 + 1] - ay;
+            double distance = length == 0 ? Math.hypot(px, py) : Math.abs(px * dy - py * dx) / length;
+            if(distance > furthestDistance){
+                furthest = p;
+                furthestDistance = distance;
+            }
+        }
+        if(furthest != -1){
+            keep[furthest] = true;
+            reference(coords, first, furthest, tolerance, keep);
+            reference(coords, furthest, last, tolerance, keep);
+        }
+    }
+
+    private static float[] points(PolylineSet set, int i){
+        float[] points = new float[set.getPointCount(i) * 2];
+        System.arraycopy(set.coords, set.offsets[i] * 2, points, 0, points.length);
+        return points;
+    }
+}
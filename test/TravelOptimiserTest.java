@@ -0,0 +1,97 @@
+package drawingbot.geom;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TravelOptimiserTest {
+
+    private static final long TIME_LIMIT = 10000;
+
+    @Test
+    public void smallSetsAndNoTimeAreUnchanged(){
+        PolylineSet set = segments(new int[]{1, 0}, new boolean[2]);
+        assertSame(set, TravelOptimiser.optimise(set, 0, 0, TIME_LIMIT));
+        PolylineSet larger = segments(new int[]{3, 1, 2, 0}, new boolean[4]);
+        assertSame(larger, TravelOptimiser.optimise(larger, 0, 0, 0));
+    }
+
+    @Test
+    public void reversedRunIsUncrossed(){
+        //a run drawn backwards in the wrong order, a single 2-opt move puts it right
+        int[] order = {0, 5, 4, 3, 2, 1, 6, 7, 8, 9};
+        boolean[] reversed = {false, true, true, true, true, true, false, false, false, false};
+        PolylineSet result = TravelOptimiser.optimise(segments(order, reversed), 0, 0, TIME_LIMIT);
+        assertEquals(optimalTravel(10), result.getTravelDistance(), 1e-4);
+        assertSamePolylines(segments(order, reversed), result);
+    }
+
+    @Test
+    public void misplacedPolylineIsMoved(){
+        //one polyline out of place, an Or-opt move puts it back between its neighbours
+        int[] order = {0, 1, 2, 7, 3, 4, 5, 6, 8, 9};
+        PolylineSet result = TravelOptimiser.optimise(segments(order, new boolean[10]), 0, 0, TIME_LIMIT);
+        assertEquals(optimalTravel(10), result.getTravelDistance(), 1e-4);
+    }
+
+    @Test
+    public void randomSetsNeverGetWorse(){
+        Random random = new Random(31);
+        for(int size : new int[]{3, 10, 100, 2000}){
+            PolylineSet set = new PolylineSet();
+            for(int i = 0; i < size; i++){
+                int points = 2 + random.nextInt(3);
+                float[] coords = new float[points * 2];
+                for(int p = 0; p < coords.length; p++){
+                    coords[p] = random.nextFloat() * 500;
+                }
+                set.add(coords, points, i); //the pen identifies the polyline
+            }
+            PolylineSet result = TravelOptimiser.optimise(set, 0, 0, TIME_LIMIT);
+            assertTrue(result.getTravelDistance() <= set.getTravelDistance() + 1e-3, "size " + size);
+            assertSamePolylines(set, result);
+        }
+    }
+
+    /**checks every polyline appears exactly once with its pen, either way round*/
+    private static void assertSamePolylines(PolylineSet expected, PolylineSet actual){
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.pointCount, actual.pointCount);
+        int[] source = new int[expected.size];
+        for(int i = 0; i < expected.size; i++){
+            source[expected.pens[i]] = i;
+        }
+        boolean[] seen = new boolean[expected.size];
+        for(int n = 0; n < actual.size; n++){
+            int pen = actual.pens[n];
+            assertFalse(seen[pen], "polyline " + pen + " appears twice");
+            seen[pen] = true;
+            int i = source[pen];
+            int points = expected.getPointCount(i);
+            assertEquals(points, actual.getPointCount(n));
+            boolean reversed = actual.getStartX(n) != expected.getStartX(i) || actual.getStartY(n) != expected.getStartY(i);
+            for(int p = 0; p < points; p++){
+                int from = (expected.offsets[i] + (reversed ? points - 1 - p : p)) * 2;
+                int to = (actual.offsets[n] + p) * 2;
+                assertEquals(expected.coords[from], actual.coords[to], "polyline " + pen);
+                assertEquals(expected.coords[from + 1], actual.coords[to + 1], "polyline " + pen);
+            }
+        }
+    }
+
+    /**unit segments spaced 10 apart along the x axis, polyline i is at x = 10i and has pen i*/
+    private static PolylineSet segments(int[] order, boolean[] reversed){
+        PolylineSet set = new PolylineSet();
+        for(int n = 0; n < order.length; n++){
+            float x = order[n] * 10;
+            set.add(reversed[n] ? new float[]{x + 1, 0, x, 0} : new float[]{x, 0, x + 1, 0}, 2, order[n]);
+        }
+        return set;
+    }
+
+    private static double optimalTravel(int count){
+        return (count - 1) * 9;
+    }
+}
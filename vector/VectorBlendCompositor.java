@@ -0,0 +1,107 @@
+package drawingbot.image.blend;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Composites packed ARGB rasters with the jdk.incubator.vector API, a lane per pixel, using the same per channel formulas as {@link BlendComposite} so it produces the same pixels as the scalar {@link BlendCompositor}.
+ * Modes which need a per channel division (COLOR_BURN, COLOR_DODGE) are left to the scalar path.
+ * This is kept in the separate, opt-in vector source set so the default build doesn't need the incubator module, build it with --add-modules jdk.incubator.vector and run with the same flag to enable it.
+ * {@link BlendCompositor} loads it reflectively if it's on the classpath. BlendCompositorBenchmark in the jmh source set compares it with the scalar path.
+ */
+public class VectorBlendCompositor implements BlendCompositor.IBlendEngine {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public interface IVectorBlend {
+
+        /**blends one channel of the source (layer) and destination, every lane is 0-255*/
+        IntVector blend(IntVector s, IntVector d);
+
+    }
+
+    public static final Map<EnumBlendMode, IVectorBlend> FUNCTIONS = new EnumMap<>(EnumBlendMode.class);
+
+    static {
+        FUNCTIONS.put(EnumBlendMode.NORMAL, (s, d) -> s);
+        FUNCTIONS.put(EnumBlendMode.ADD, (s, d) -> s.add(d).min(255));
+        FUNCTIONS.put(EnumBlendMode.AVERAGE, (s, d) -> s.add(d).lanewise(VectorOperators.ASHR, 1));
+        FUNCTIONS.put(EnumBlendMode.DARKEN, IntVector::min);
+        FUNCTIONS.put(EnumBlendMode.DIFFERENCE, (s, d) -> d.sub(s).abs());
+        FUNCTIONS.put(EnumBlendMode.EXCLUSION, (s, d) -> d.add(s).sub(d.mul(s).lanewise(VectorOperators.ASHR, 7)));
+        FUNCTIONS.put(EnumBlendMode.HARD_LIGHT, (s, d) -> hardLight(s, d));
+        FUNCTIONS.put(EnumBlendMode.LIGHTEN, IntVector::max);
+        FUNCTIONS.put(EnumBlendMode.MULTIPLY, (s, d) -> s.mul(d).lanewise(VectorOperators.ASHR, 8));
+        FUNCTIONS.put(EnumBlendMode.NEGATION, (s, d) -> s.broadcast(255).sub(s.broadcast(255).sub(d).sub(s).abs()));
+        FUNCTIONS.put(EnumBlendMode.OVERLAY, (s, d) -> hardLight(d, s)); //overlay is hard light with the layers swapped
+        FUNCTIONS.put(EnumBlendMode.SCREEN, (s, d) -> s.broadcast(255).sub(inverse(s).mul(inverse(d)).lanewise(VectorOperators.ASHR, 8)));
+        FUNCTIONS.put(EnumBlendMode.SOFT_LIGHT, (s, d) -> {
+            IntVector mult = d.mul(s).lanewise(VectorOperators.ASHR, 8);
+            IntVector screen = s.broadcast(255).sub(inverse(d).mul(inverse(s)).lanewise(VectorOperators.ASHR, 8));
+            return mult.add(d.mul(screen.sub(mult)).lanewise(VectorOperators.ASHR, 8));
+        });
+        FUNCTIONS.put(EnumBlendMode.SUBTRACT, (s, d) -> s.add(d).sub(256).max(0));
+    }
+
+    @Override
+    public boolean composite(EnumBlendMode blendMode, int[] src, int[] dst, int offset, int length) {
+        IVectorBlend function = FUNCTIONS.get(blendMode);
+        if(function == null){
+            return false;
+        }
+        int end = offset + length;
+        int i = offset;
+        for(; i <= end - SPECIES.length(); i += SPECIES.length()){
+            IntVector s = IntVector.fromArray(SPECIES, src, i);
+            IntVector sa = s.lanewise(VectorOperators.LSHR, 24);
+            VectorMask<Integer> visible = sa.compare(VectorOperators.NE, 0);
+            if(!visible.anyTrue()){
+                continue;
+            }
+            IntVector d = IntVector.fromArray(SPECIES, dst, i);
+            IntVector da = d.lanewise(VectorOperators.LSHR, 24);
+
+            IntVector r = mix(function, channel(s, 16), channel(d, 16), sa);
+            IntVector g = mix(function, channel(s, 8), channel(d, 8), sa);
+            IntVector b = mix(function, channel(s, 0), channel(d, 0), sa);
+            IntVector a = sa.add(div255(da.mul(inverse(sa))));
+
+            IntVector result = a.lanewise(VectorOperators.LSHL, 24).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+            d.blend(result, visible).intoArray(dst, i);
+        }
+        if(i < end){
+            BlendCompositor.composite(BlendCompositor.getComposite(blendMode), src, dst, i, end - i);
+        }
+        return true;
+    }
+
+    /**d + (blend(s, d) - d) * sa / 255, clamped to 0-255*/
+    private static IntVector mix(IVectorBlend function, IntVector s, IntVector d, IntVector sa){
+        return d.add(div255(function.blend(s, d).sub(d).mul(sa))).max(0).min(255);
+    }
+
+    private static IntVector channel(IntVector argb, int shift){
+        return argb.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+    }
+
+    private static IntVector inverse(IntVector channel){
+        return channel.broadcast(255).sub(channel);
+    }
+
+    private static IntVector hardLight(IntVector s, IntVector d){
+        IntVector low = d.mul(s).lanewise(VectorOperators.ASHR, 7);
+        IntVector high = s.broadcast(255).sub(inverse(s).mul(inverse(d)).lanewise(VectorOperators.ASHR, 7));
+        return high.blend(low, s.compare(VectorOperators.LT, 128));
+    }
+
+    /**integer division by 255 truncated towards zero like the scalar path, exact for |x| <= 65535*/
+    private static IntVector div255(IntVector x){
+        IntVector quotient = x.abs().mul(32897).lanewise(VectorOperators.LSHR, 23);
+        return quotient.blend(quotient.neg(), x.compare(VectorOperators.LT, 0));
+    }
+}